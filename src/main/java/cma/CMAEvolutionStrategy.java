@@ -2,6 +2,13 @@ package cma;
 
 import java.io.Serializable;
 import java.util.*; // Properties, Arrays.sort, Formatter not needed anymore
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
 
 /* 
     Copyright 1996, 2003, 2005, 2007 Nikolaus Hansen 
@@ -475,6 +482,24 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
     double[] BDz;
     double[] artmp;
     
+    /** Gaussian draws of the next iteration, generated while the population is evaluated 
+     * when the sampling is pipelined */
+    transient Future<double[]> nextDraws;
+    /** Gaussian draws generated ahead and not used yet, from position drawPosition */
+    double[] draws;
+    int drawPosition;
+    /** executor of the pipelined sampling, the common pool if null */
+    transient ForkJoinPool executor;
+    
+    /** single daemon thread that generates the Gaussian draws ahead */
+    private static final ExecutorService drawExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "cma-sampling");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    
     String propertiesFileName = new String("CMAEvolutionStrategy.properties");
     /** postpones most initialization. For initialization use setInitial... 
      * methods or set up a properties file, see file "CMAEvolutionStrategy.properties". */
@@ -1091,12 +1116,24 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
     		// eigendecomposition
     		double [] offdiag = new double[N];
     		long firsttime = System.currentTimeMillis();
-    		tred2(N, B, diagD, offdiag);
-    		tql2(N, diagD, offdiag, B);
+    		if (options.parallelEigendecomposition > 0)
+    			new ParallelEigendecomposition(getExecutor()).decompose(N, B, diagD);
+    		else {
+    			tred2(N, B, diagD, offdiag);
+    			tql2(N, diagD, offdiag, B);
+    		}
     		timings.eigendecomposition += System.currentTimeMillis() - firsttime;
 
     		if (options.checkEigenSystem > 0)
-    			checkEigenSystem( N,  C, diagD, B); // for debugging 
+    			if (checkEigenSystem( N,  C, diagD, B) > 0 // for debugging 
+    					&& options.parallelEigendecomposition > 0) {
+    				warning("parallel eigendecomposition imprecise, recomputed with tred2 and tql2");
+    				for (i = 0; i < N; ++i)
+    					for (j = 0; j <= i; ++j)
+    						B[i][j] = B[j][i] = C[i][j];
+    				tred2(N, B, diagD, offdiag);
+    				tql2(N, diagD, offdiag, B);
+    			}
 
     		// assign diagD to eigenvalue square roots
     		for (i = 0; i < N; ++i) {
@@ -1494,6 +1531,12 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
         
         testAndCorrectNumerics();
         
+        /* sample the distribution in parallel from draws generated ahead */
+        if (options.pipelinedSampling > 0) {
+            samplePipelined();
+            return population = genoPhenoTransformation(arx, population);
+        }
+        
         /* sample the distribution */
         for (iNk = 0; iNk < sp.getLambda(); ++iNk) { /*
             * generate scaled
@@ -1536,6 +1579,136 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
         
     } // end samplePopulation()
 
+    /** samples the lambda solutions in parallel with the Gaussian draws generated 
+     * during the previous evaluation, which are the draws the sequential sampling 
+     * would take from the random number generator, and starts generating 
+     * the draws of the next iteration. The eigendecomposition is not overlapped, 
+     * as it needs the covariance matrix updated with the fitness of the evaluation. 
+     */
+    private void samplePipelined() {
+        final int count = sp.getLambda() * N;
+        double[] z = gaussians(count);
+        
+        nextDraws = drawExecutor.submit(new Callable<double[]>() {
+            public double[] call() {
+                double[] z = new double[count];
+                for (int i = 0; i < count; ++i)
+                    z[i] = rand.nextGaussian();
+                return z;
+            }
+        });
+        
+        getExecutor().invoke(new SampleTask(z, 0, sp.getLambda()));
+    }
+    
+    /** samples a solution, as the sequential sampling does 
+     * @param z Gaussian draws of the population 
+     * @param iNk solution index 
+     */
+    private void sample(double[] z, int iNk) {
+        int i, j, base = iNk * N;
+        double sum;
+        
+        if (flgdiag)
+            for (i = 0; i < N; ++i)
+                arx[iNk][i] = xmean[i] + sigma * diagD[i] * z[base + i];
+        else {
+            double[] artmp = new double[N];
+            
+            for (i = 0; i < N; ++i)
+                artmp[i] = diagD[i] * z[base + i];
+            
+            /* add mutation (sigma * B * (D*z)) */
+            for (i = 0; i < N; ++i) {
+                for (j = 0, sum = 0; j < N; ++j)
+                    sum += B[i][j] * artmp[j];
+                
+                arx[iNk][i] = Math.abs(xmean[i] + sigma * sum);
+            }
+        }
+    }
+    
+    /** takes the next Gaussian draws in the order of the random number generator, 
+     * first those generated ahead 
+     * @param count number of draws 
+     */
+    private double[] gaussians(int count) {
+        double[] z = new double[count];
+        int k = 0;
+        
+        while (k < count) {
+            if (draws == null || drawPosition == draws.length) {
+                drawPosition = 0;
+                draws = nextDraws != null ? waitDraws() : null;
+                
+                if (draws == null) {
+                    for (; k < count; ++k)
+                        z[k] = rand.nextGaussian();
+                    break;
+                }
+            }
+            
+            int length = Math.min(count - k, draws.length - drawPosition);
+            System.arraycopy(draws, drawPosition, z, k, length);
+            drawPosition += length;
+            k += length;
+        }
+        
+        return z;
+    }
+    
+    /** waits for the Gaussian draws being generated ahead and keeps them for the next samples */
+    private void finishDraws() {
+        if (nextDraws == null)
+            return;
+        
+        int remaining = draws == null ? 0 : draws.length - drawPosition;
+        double[] ahead = waitDraws();
+        double[] all = new double[remaining + ahead.length];
+        
+        if (remaining > 0)
+            System.arraycopy(draws, drawPosition, all, 0, remaining);
+        System.arraycopy(ahead, 0, all, remaining, ahead.length);
+        
+        draws = all;
+        drawPosition = 0;
+    }
+    
+    /** waits for the Gaussian draws generated ahead */
+    private double[] waitDraws() {
+        try {
+            return nextDraws.get();
+        } catch (Exception e) {
+            error("generation of the Gaussian draws failed: " + e);
+            return null;
+        } finally {
+            nextDraws = null;
+        }
+    }
+    
+    /** samples a range of solutions in parallel */
+    private class SampleTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private double[] z;
+        private int from, to;
+        
+        SampleTask(double[] z, int from, int to) {
+            this.z = z;
+            this.from = from;
+            this.to = to;
+        }
+        
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SampleTask(z, from, middle), new SampleTask(z, middle, to));
+            }
+            else if (from < to)
+                sample(z, from);
+        }
+    }
+
 	/** re-generate the <code>index</code>-th solution. After getting lambda
      * solution points with samplePopulation() the i-th point,
      * i=0...lambda-1, can be sampled anew by resampleSingle(i). 
@@ -1556,14 +1729,17 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
         if (state != 1)
             error("call samplePopulation before calling resampleSingle(int index)");
         
+        /* the draws generated ahead come first when the sampling is pipelined */
+        double[] z = options.pipelinedSampling > 0 ? gaussians(N) : null;
+        
         /* sample the distribution */
         /* generate scaled random vector (D * z) */
         if (flgdiag)
             for (i = 0; i < N; ++i)
-        		arx[index][i] = xmean[i] + sigma * diagD[i] * rand.nextGaussian();
+        		arx[index][i] = xmean[i] + sigma * diagD[i] * (z != null ? z[i] : rand.nextGaussian());
         else {
             for (i = 0; i < N; ++i) 
-                artmp[i] = diagD[i] * rand.nextGaussian();
+                artmp[i] = diagD[i] * (z != null ? z[i] : rand.nextGaussian());
         	
         	/* add mutation (sigma * B * (D*z)) */
         	for (i = 0; i < N; ++i) {
@@ -1970,6 +2146,13 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
     public long getCountIter() {
         return countiter;
     }
+
+    /**
+     * current overall step size <code>sigma</code> of the search distribution
+     */
+    public double getSigma() {
+        return sigma;
+    }
     
     /** the final setting of initial <code>x</code> can 
      * be retrieved only after <code>init()</code> was called
@@ -1987,6 +2170,7 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
 
     /** get used random number generator instance */
     public Random getRand() {
+        finishDraws(); // the generator is not used in background any more
         return rand;
     }
 
@@ -2185,8 +2369,24 @@ public class CMAEvolutionStrategy implements java.io.Serializable {
     }
     
     public void setRand(Random rand) {
+        finishDraws(); // the draws generated ahead come from the previous generator
+        draws = null;
+        drawPosition = 0;
         this.rand = rand;
     }
+    
+    /** get the executor of the pipelined sampling and the parallel eigendecomposition, 
+     * the common pool if none was set */
+    public ForkJoinPool getExecutor() {
+        return executor != null ? executor : ForkJoinPool.commonPool();
+    }
+    
+    /** set the executor of the pipelined sampling and the parallel eigendecomposition 
+     * @see CMAOptions#pipelinedSampling 
+     * @see CMAOptions#parallelEigendecomposition */
+    public void setExecutor(ForkJoinPool executor) {
+        this.executor = executor;
+    }
 
     /** Setter for the seed for the random number generator
      * java.util.Random(seed). Changing the seed will only take
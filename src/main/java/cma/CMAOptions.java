@@ -136,6 +136,19 @@ public class CMAOptions implements java.io.Serializable {
          */
         public int checkEigenSystem = 0;
 
+        /** if chosen > 0 the Gaussian draws of the next iteration are generated while the 
+         * population is evaluated, and the lambda solutions are sampled in parallel. 
+         * The samples are the same as without pipelining, default is 0. 
+         */
+        public int pipelinedSampling = 0;
+
+        /** if chosen > 0 the eigendecomposition of C is computed in parallel by a Householder 
+         * tridiagonalization and a divide and conquer eigensolver, much faster than tred2 
+         * and tql2 in large dimension. With checkEigenSystem > 0 an imprecise result is 
+         * recomputed with tred2 and tql2, default is 0. 
+         */
+        public int parallelEigendecomposition = 0;
+
         /** This is the only place where the reading of a new option needs to be declared 
          * 
          * @param properties
@@ -166,6 +179,9 @@ public class CMAOptions implements java.io.Serializable {
             stopnow = "now".equals(getFirstToken(properties.getProperty("stop")));
             writeDisplayToFile = getFirstToken(properties.getProperty("writeDisplayToFile"), writeDisplayToFile);
             checkEigenSystem = getFirstToken(properties.getProperty("checkEigenSystem"), checkEigenSystem);
+            pipelinedSampling = getFirstToken(properties.getProperty("pipelinedSampling"), pipelinedSampling);
+            parallelEigendecomposition = getFirstToken(properties.getProperty("parallelEigendecomposition"), 
+                    parallelEigendecomposition);
         }
 
 		/** Returns the double value of the first token of a string s or the default, 
@@ -0,0 +1,701 @@
+package cma;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/** Multithreaded eigendecomposition of a symmetric matrix for high dimensions,
+ * with the output of tred2 and tql2: the eigenvalues in ascending order and the
+ * eigenvectors in the columns.
+ *
+ * <P> The matrix is reduced to tridiagonal form by Householder reflections.
+ * Each reflection updates the trailing rows in parallel, and the update is
+ * fused with the matrix-vector product of the next reflection, so the trailing
+ * matrix is read once per column. The tridiagonal matrix is diagonalized by
+ * Cuppen's divide and conquer: both halves are solved in parallel, small
+ * subproblems by QL iteration, and merged by the rank-one update of the
+ * coupling element. Close eigenvalues and negligible components are deflated,
+ * and the eigenvectors of the rank-one update are computed from the roots of
+ * the secular equation as in Gu and Eisenstat, so they stay orthogonal. The
+ * reflections are finally applied to blocks of eigenvectors in parallel. </P>
+ *
+ * @see CMAOptions#parallelEigendecomposition
+ */
+class ParallelEigendecomposition {
+
+    /** largest tridiagonal subproblem solved by QL iteration */
+    private static final int LEAF_SIZE = 32;
+
+    /** minimum number of matrix entries processed by a parallel task */
+    private static final int TASK_SIZE = 1 << 15;
+
+    /** number of eigenvectors transformed together by each reflection */
+    private static final int VECTOR_BLOCK = 16;
+
+    /** number of eigenvectors of the halves combined together when merging */
+    private static final int PRODUCT_BLOCK = 64;
+
+    /** maximum number of bisections of a root of the secular equation */
+    private static final int MAX_BISECTIONS = 1100;
+
+    private static final double EPS = Math.pow(2.0, -52.0);
+
+    private final ForkJoinPool executor;
+
+    /** @param executor executor of the parallel tasks */
+    ParallelEigendecomposition(ForkJoinPool executor) {
+        this.executor = executor;
+    }
+
+    /** computes the eigendecomposition of a symmetric matrix
+     * @param n dimension
+     * @param V on input the symmetric matrix, both triangles,
+     *        on output the eigenvectors in the columns
+     * @param d on output the eigenvalues in ascending order
+     */
+    void decompose(int n, double[][] V, double[] d) {
+        if (n == 1) {
+            d[0] = V[0][0];
+            V[0][0] = 1.0;
+            return;
+        }
+
+        double[] e = new double[n];
+        double[] tau = new double[n];
+        double[][] reflectors = new double[n][];
+
+        tridiagonalize(n, V, d, e, reflectors, tau);
+
+        SolveTask task = new SolveTask(d, e, 0, n);
+        run(task);
+
+        double[][] Z = task.result.vectors;
+        backTransform(n, reflectors, tau, Z);
+
+        for (int i = 0; i < n; i++) {
+            d[i] = task.result.values[i];
+            for (int j = 0; j < n; j++)
+                V[i][j] = Z[j][i];
+        }
+    }
+
+    /* ========================================================= */
+    /* Householder tridiagonalization */
+
+    /** reduces a symmetric matrix to tridiagonal form, T = Q^T A Q with
+     * Q = H(0) H(1) ... H(n-3) and H(k) = I - tau[k] v v^T, v = reflectors[k]
+     * @param a symmetric matrix, destroyed
+     * @param d diagonal of T
+     * @param e e[i] is the element (i, i+1) of T
+     */
+    private void tridiagonalize(int n, double[][] a, double[] d, double[] e, double[][] reflectors, double[] tau) {
+        double[] p = new double[n];
+        double[] w = new double[n];
+
+        if (n > 2) {
+            reflectors[0] = reflector(a[0], 0, n, tau, e);
+            pass(a, n, 1, 0, null, null, reflectors[0], tau[0], p);
+        }
+
+        for (int k = 0; k < n - 2; k++) {
+            // w = p - (tau/2) (p^T v) v, with p = tau A v on the trailing matrix
+            double[] v = reflectors[k];
+            double pv = 0.0;
+            for (int i = k + 1; i < n; i++)
+                pv += p[i] * v[i];
+            double K = 0.5 * tau[k] * pv;
+            for (int i = k + 1; i < n; i++)
+                w[i] = p[i] - K * v[i];
+
+            // the next reflection is generated from the updated row k+1
+            update(a[k + 1], k + 1, k + 1, n, v, w);
+
+            double[] next = null;
+            if (k + 1 < n - 2)
+                next = reflectors[k + 1] = reflector(a[k + 1], k + 1, n, tau, e);
+
+            // A = A - v w^T - w v^T on the remaining rows, fused with the next product
+            pass(a, n, k + 2, k + 1, v, w, next, next != null ? tau[k + 1] : 0.0, p);
+        }
+
+        for (int i = 0; i < n; i++)
+            d[i] = a[i][i];
+        e[n - 2] = a[n - 1][n - 2];
+        e[n - 1] = 0.0;
+    }
+
+    /** generates the reflection that annihilates row[k+2..n-1], as dlarfg */
+    private static double[] reflector(double[] row, int k, int n, double[] tau, double[] e) {
+        double[] v = new double[n];
+        double alpha = row[k + 1];
+        double scale = 0.0;
+
+        v[k + 1] = 1.0;
+
+        for (int j = k + 2; j < n; j++)
+            scale = Math.max(scale, Math.abs(row[j]));
+
+        if (scale == 0.0) {
+            tau[k] = 0.0;
+            e[k] = alpha;
+            return v;
+        }
+
+        double sum = 0.0;
+        for (int j = k + 2; j < n; j++) {
+            double x = row[j] / scale;
+            sum += x * x;
+        }
+
+        double beta = -Math.copySign(Math.hypot(alpha, scale * Math.sqrt(sum)), alpha);
+        double f = 1.0 / (alpha - beta);
+
+        for (int j = k + 2; j < n; j++)
+            v[j] = row[j] * f;
+
+        tau[k] = (beta - alpha) / beta;
+        e[k] = beta;
+        return v;
+    }
+
+    /** row[j] -= v[i] w[j] + w[i] v[j] for j >= col */
+    private static void update(double[] row, int i, int col, int n, double[] v, double[] w) {
+        double vi = v[i];
+        double wi = w[i];
+        for (int j = col; j < n; j++)
+            row[j] -= vi * w[j] + wi * v[j];
+    }
+
+    /** updates the rows from..n-1 with the reflection (v, w), if any, and
+     * computes p = tauNext A next on them, if next is not null
+     */
+    private void pass(final double[][] a, final int n, int from, final int col, final double[] v, final double[] w,
+            final double[] next, final double tauNext, final double[] p) {
+        run(new RangeTask(from, n, Math.max(1, TASK_SIZE / (n - col)), new Body() {
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double[] row = a[i];
+                    if (v != null)
+                        update(row, i, col, n, v, w);
+                    if (next != null) {
+                        double s = 0.0;
+                        for (int j = col; j < n; j++)
+                            s += row[j] * next[j];
+                        p[i] = tauNext * s;
+                    }
+                }
+            }
+        }));
+    }
+
+    /** applies the reflections to the eigenvectors of T, Z[j] = Q Z[j] */
+    private void backTransform(final int n, final double[][] reflectors, final double[] tau, final double[][] Z) {
+        run(new RangeTask(0, (n + VECTOR_BLOCK - 1) / VECTOR_BLOCK, 1, new Body() {
+            public void run(int from, int to) {
+                for (int b = from; b < to; b++) {
+                    int last = Math.min(n, (b + 1) * VECTOR_BLOCK);
+                    for (int k = n - 3; k >= 0; k--) {
+                        if (tau[k] == 0.0)
+                            continue;
+                        double[] v = reflectors[k];
+                        for (int c = b * VECTOR_BLOCK; c < last; c++) {
+                            double[] z = Z[c];
+                            double s = 0.0;
+                            for (int i = k + 1; i < n; i++)
+                                s += v[i] * z[i];
+                            s *= tau[k];
+                            for (int i = k + 1; i < n; i++)
+                                z[i] -= s * v[i];
+                        }
+                    }
+                }
+            }
+        }));
+    }
+
+    /* ========================================================= */
+    /* Divide and conquer */
+
+    /** eigenvalues in ascending order and eigenvectors, one in each row */
+    private static class Eigensystem {
+        double[] values;
+        double[][] vectors;
+
+        Eigensystem(double[] values, double[][] vectors) {
+            this.values = values;
+            this.vectors = vectors;
+        }
+    }
+
+    /** solves a subproblem of QL iteration size */
+    private static Eigensystem leaf(double[] d, double[] e, int lo, int hi) {
+        int m = hi - lo;
+        double[] values = Arrays.copyOfRange(d, lo, hi);
+        double[] sub = new double[m];
+        double[][] V = new double[m][m];
+
+        for (int i = 1; i < m; i++)
+            sub[i] = e[lo + i - 1];
+        for (int i = 0; i < m; i++)
+            V[i][i] = 1.0;
+
+        tql2(m, values, sub, V);
+
+        double[][] vectors = new double[m][m];
+        for (int i = 0; i < m; i++)
+            for (int j = 0; j < m; j++)
+                vectors[j][i] = V[i][j];
+
+        return new Eigensystem(values, vectors);
+    }
+
+    /** merges the eigensystems of the halves of a tridiagonal matrix coupled by b,
+     * T = diag(T1, T2) + |b| u u^T, u = (0, .., 0, 1, sign(b), 0, .., 0),
+     * by the eigendecomposition of D + rho z z^T
+     */
+    private Eigensystem merge(Eigensystem left, Eigensystem right, double b) {
+        int m1 = left.values.length;
+        int m = m1 + right.values.length;
+        double sign = b < 0 ? -1.0 : 1.0;
+
+        // Eigenvalues, z and eigenvectors of diag(T1, T2) in ascending order
+        double[] dd = new double[m];
+        double[] z = new double[m];
+        final double[][] vectors = new double[m][];
+        final int[] start = new int[m];
+        final int[] end = new int[m];
+
+        for (int i = 0, l = 0, r = 0; i < m; i++) {
+            vectors[i] = new double[m];
+            if (r == right.values.length || (l < m1 && left.values[l] <= right.values[r])) {
+                dd[i] = left.values[l];
+                z[i] = left.vectors[l][m1 - 1];
+                System.arraycopy(left.vectors[l], 0, vectors[i], 0, m1);
+                end[i] = m1;
+                l++;
+            } else {
+                dd[i] = right.values[r];
+                z[i] = sign * right.vectors[r][0];
+                System.arraycopy(right.vectors[r], 0, vectors[i], m1, m - m1);
+                start[i] = m1;
+                end[i] = m;
+                r++;
+            }
+        }
+
+        double norm = 0.0;
+        for (int i = 0; i < m; i++)
+            norm += z[i] * z[i];
+
+        final double rho = Math.abs(b) * norm;
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < m; i++)
+            z[i] /= norm;
+
+        // Deflation of negligible components and of close eigenvalues, as dlaed2
+        double dmax = 0.0, zmax = 0.0;
+        for (int i = 0; i < m; i++) {
+            dmax = Math.max(dmax, Math.abs(dd[i]));
+            zmax = Math.max(zmax, Math.abs(z[i]));
+        }
+        double tol = 8.0 * EPS * Math.max(dmax, zmax);
+
+        boolean[] deflated = new boolean[m];
+        int[] kept = new int[m];
+        int k = 0;
+        int pj = -1;
+
+        for (int j = 0; j < m; j++) {
+            if (rho * Math.abs(z[j]) <= tol) {
+                deflated[j] = true;
+                continue;
+            }
+            if (pj >= 0) {
+                double s = z[pj];
+                double c = z[j];
+                double t = Math.hypot(c, s);
+                c /= t;
+                s = -s / t;
+                if (Math.abs((dd[j] - dd[pj]) * c * s) <= tol) {
+                    // rotate to zero z[pj], dd[pj] is an eigenvalue
+                    z[j] = t;
+                    z[pj] = 0.0;
+                    start[pj] = start[j] = Math.min(start[pj], start[j]);
+                    end[pj] = end[j] = Math.max(end[pj], end[j]);
+                    double[] x = vectors[pj], y = vectors[j];
+                    for (int i = start[j]; i < end[j]; i++) {
+                        double xi = x[i];
+                        x[i] = c * xi + s * y[i];
+                        y[i] = c * y[i] - s * xi;
+                    }
+                    double dp = dd[pj] * c * c + dd[j] * s * s;
+                    dd[j] = dd[pj] * s * s + dd[j] * c * c;
+                    dd[pj] = dp;
+                    deflated[pj] = true;
+                    pj = j;
+                    continue;
+                }
+                kept[k++] = pj;
+            }
+            pj = j;
+        }
+        if (pj >= 0)
+            kept[k++] = pj;
+
+        // the rotations may have swapped neighbours
+        for (int i = 1; i < k; i++)
+            for (int j = i; j > 0 && dd[kept[j]] < dd[kept[j - 1]]; j--) {
+                int tmp = kept[j];
+                kept[j] = kept[j - 1];
+                kept[j - 1] = tmp;
+            }
+
+        final int K = k;
+        final double[] dk = new double[K];
+        final double[] zk = new double[K];
+        final double[] z2 = new double[K];
+        final int[] rows = Arrays.copyOf(kept, K);
+        for (int i = 0; i < K; i++) {
+            dk[i] = dd[kept[i]];
+            zk[i] = z[kept[i]];
+            z2[i] = zk[i] * zk[i];
+        }
+
+        // Roots of the secular equation, lambda[j] = dk[origin[j]] + mu[j]
+        final int[] origin = new int[K];
+        final double[] mu = new double[K];
+        final int grain = Math.max(1, TASK_SIZE / Math.max(1, K));
+
+        run(new RangeTask(0, K, grain, new Body() {
+            public void run(int from, int to) {
+                for (int j = from; j < to; j++)
+                    root(dk, z2, rho, j, origin, mu);
+            }
+        }));
+
+        // z recomputed from the roots so that the eigenvectors are orthogonal
+        final double[] zhat = new double[K];
+
+        run(new RangeTask(0, K, grain, new Body() {
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    double prod = -((dk[i] - dk[origin[i]]) - mu[i]) / rho;
+                    for (int j = 0; j < K; j++)
+                        if (j != i)
+                            prod *= ((dk[i] - dk[origin[j]]) - mu[j]) / (dk[i] - dk[j]);
+                    zhat[i] = Math.copySign(Math.sqrt(Math.abs(prod)), zk[i]);
+                }
+            }
+        }));
+
+        // Eigenvectors of the rank-one update and their product with the eigenvectors of the halves
+        final double[][] merged = new double[K][];
+
+        run(new RangeTask(0, K, Math.max(1, TASK_SIZE / Math.max(1, K * m / 8)), new Body() {
+            public void run(int from, int to) {
+                double[][] u = new double[to - from][K];
+                for (int j = from; j < to; j++) {
+                    double[] uj = u[j - from];
+                    double length = 0.0;
+                    for (int i = 0; i < K; i++) {
+                        uj[i] = zhat[i] / ((dk[i] - dk[origin[j]]) - mu[j]);
+                        length += uj[i] * uj[i];
+                    }
+                    length = Math.sqrt(length);
+                    for (int i = 0; i < K; i++)
+                        uj[i] /= length;
+                    merged[j] = new double[m];
+                }
+                for (int block = 0; block < K; block += PRODUCT_BLOCK) {
+                    int last = Math.min(K, block + PRODUCT_BLOCK);
+                    for (int j = from; j < to; j++) {
+                        double[] uj = u[j - from];
+                        double[] out = merged[j];
+                        for (int i = block; i < last; i++) {
+                            double[] x = vectors[rows[i]];
+                            double f = uj[i];
+                            for (int r = start[rows[i]]; r < end[rows[i]]; r++)
+                                out[r] += f * x[r];
+                        }
+                    }
+                }
+            }
+        }));
+
+        // Eigenvalues and eigenvectors in ascending order
+        double[] values = new double[m];
+        double[][] result = new double[m][];
+        int count = 0;
+
+        for (int j = 0; j < K; j++) {
+            values[count] = dk[origin[j]] + mu[j];
+            result[count++] = merged[j];
+        }
+        for (int i = 0; i < m; i++)
+            if (deflated[i]) {
+                values[count] = dd[i];
+                result[count++] = vectors[i];
+            }
+
+        for (int i = 1; i < m; i++) {
+            double value = values[i];
+            double[] vector = result[i];
+            int j = i;
+            for (; j > 0 && values[j - 1] > value; j--) {
+                values[j] = values[j - 1];
+                result[j] = result[j - 1];
+            }
+            values[j] = value;
+            result[j] = vector;
+        }
+
+        return new Eigensystem(values, result);
+    }
+
+    /** finds the j-th root of the secular equation 1 + rho sum z2[i] / (dk[i] - lambda) = 0
+     * by bisection, relative to its nearest pole to keep the differences dk[i] - lambda accurate
+     */
+    private static void root(double[] dk, double[] z2, double rho, int j, int[] origin, double[] mu) {
+        int K = dk.length;
+        int org;
+        double lo, hi;
+
+        if (j < K - 1) {
+            double half = (dk[j + 1] - dk[j]) / 2.0;
+            if (secular(dk, z2, rho, j, half) > 0) {
+                org = j;
+                lo = 0.0;
+                hi = half;
+            } else {
+                org = j + 1;
+                lo = -half;
+                hi = 0.0;
+            }
+        } else {
+            double sum = 0.0;
+            for (int i = 0; i < K; i++)
+                sum += z2[i];
+            org = j;
+            lo = 0.0;
+            hi = rho * sum;
+        }
+
+        for (int iter = 0; iter < MAX_BISECTIONS; iter++) {
+            double x = (lo + hi) / 2.0;
+            if (x == lo || x == hi)
+                break;
+            double f = secular(dk, z2, rho, org, x);
+            if (f > 0)
+                hi = x;
+            else if (f < 0)
+                lo = x;
+            else {
+                lo = hi = x;
+                break;
+            }
+            if (hi - lo <= 2.0 * EPS * Math.max(Math.abs(lo), Math.abs(hi)))
+                break;
+        }
+
+        origin[j] = org;
+        mu[j] = (lo + hi) / 2.0;
+    }
+
+    /** value of the secular function at lambda = dk[org] + x */
+    private static double secular(double[] dk, double[] z2, double rho, int org, double x) {
+        double base = dk[org];
+        double sum = 0.0;
+        for (int i = 0; i < dk.length; i++)
+            sum += z2[i] / ((dk[i] - base) - x);
+        return 1.0 + rho * sum;
+    }
+
+    // Symmetric tridiagonal QL algorithm, as tql2 of CMAEvolutionStrategy, taken from JAMA package.
+
+    private static void tql2 (int n, double d[], double e[], double V[][]) {
+
+       for (int i = 1; i < n; i++) {
+          e[i-1] = e[i];
+       }
+       e[n-1] = 0.0;
+
+       double f = 0.0;
+       double tst1 = 0.0;
+       double eps = Math.pow(2.0,-52.0);
+       for (int l = 0; l < n; l++) {
+
+          // Find small subdiagonal element
+
+          tst1 = Math.max(tst1,Math.abs(d[l]) + Math.abs(e[l]));
+          int m = l;
+          while (m < n) {
+             if (Math.abs(e[m]) <= eps*tst1) {
+                break;
+             }
+             m++;
+          }
+
+          // If m == l, d[l] is an eigenvalue,
+          // otherwise, iterate.
+
+          if (m > l) {
+             do {
+                // Compute implicit shift
+
+                double g = d[l];
+                double p = (d[l+1] - g) / (2.0 * e[l]);
+                double r = Math.hypot(p,1.0);
+                if (p < 0) {
+                   r = -r;
+                }
+                d[l] = e[l] / (p + r);
+                d[l+1] = e[l] * (p + r);
+                double dl1 = d[l+1];
+                double h = g - d[l];
+                for (int i = l+2; i < n; i++) {
+                   d[i] -= h;
+                }
+                f = f + h;
+
+                // Implicit QL transformation.
+
+                p = d[m];
+                double c = 1.0;
+                double c2 = c;
+                double c3 = c;
+                double el1 = e[l+1];
+                double s = 0.0;
+                double s2 = 0.0;
+                for (int i = m-1; i >= l; i--) {
+                   c3 = c2;
+                   c2 = c;
+                   s2 = s;
+                   g = c * e[i];
+                   h = c * p;
+                   r = Math.hypot(p,e[i]);
+                   e[i+1] = s * r;
+                   s = e[i] / r;
+                   c = p / r;
+                   p = c * d[i] - s * g;
+                   d[i+1] = h + s * (c * g + s * d[i]);
+
+                   // Accumulate transformation.
+
+                   for (int k = 0; k < n; k++) {
+                      h = V[k][i+1];
+                      V[k][i+1] = s * V[k][i] + c * h;
+                      V[k][i] = c * V[k][i] - s * h;
+                   }
+                }
+                p = -s * s2 * c3 * el1 * e[l] / dl1;
+                e[l] = s * p;
+                d[l] = c * p;
+
+                // Check for convergence.
+
+             } while (Math.abs(e[l]) > eps*tst1);
+          }
+          d[l] = d[l] + f;
+          e[l] = 0.0;
+       }
+
+       // Sort eigenvalues and corresponding vectors.
+
+       for (int i = 0; i < n-1; i++) {
+          int k = i;
+          double p = d[i];
+          for (int j = i+1; j < n; j++) {
+             if (d[j] < p) {
+                k = j;
+                p = d[j];
+             }
+          }
+          if (k != i) {
+             d[k] = d[i];
+             d[i] = p;
+             for (int j = 0; j < n; j++) {
+                p = V[j][i];
+                V[j][i] = V[j][k];
+                V[j][k] = p;
+             }
+          }
+       }
+    } // tql2
+
+    /* ========================================================= */
+    /* Tasks */
+
+    /** runs a task in the executor, or in the current worker if it belongs to it */
+    private void run(RecursiveAction task) {
+        if (ForkJoinTask.getPool() == executor)
+            task.invoke();
+        else
+            executor.invoke(task);
+    }
+
+    /** loop body of a range task */
+    private interface Body {
+        void run(int from, int to);
+    }
+
+    /** runs a loop body on a range split in parallel */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to, grain;
+        private final Body body;
+
+        RangeTask(int from, int to, int grain, Body body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        protected void compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new RangeTask(from, middle, grain, body), new RangeTask(middle, to, grain, body));
+            }
+            else if (from < to)
+                body.run(from, to);
+        }
+    }
+
+    /** solves the tridiagonal matrix of d and e between lo and hi, halves in parallel */
+    private class SolveTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final double[] d, e;
+        private final int lo, hi;
+        Eigensystem result;
+
+        SolveTask(double[] d, double[] e, int lo, int hi) {
+            this.d = d;
+            this.e = e;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo <= LEAF_SIZE) {
+                result = leaf(d, e, lo, hi);
+                return;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            double b = e[mid - 1];
+
+            // T = diag(T1, T2) + |b| u u^T
+            d[mid - 1] -= Math.abs(b);
+            d[mid] -= Math.abs(b);
+
+            SolveTask left = new SolveTask(d, e, lo, mid);
+            SolveTask right = new SolveTask(d, e, mid, hi);
+            invokeAll(left, right);
+
+            result = merge(left.result, right.result, b);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package net.sf.jclec.problem.classification.dgc;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import net.sf.jclec.IAlgorithmListener;
 import net.sf.jclec.IConfigure;
@@ -46,6 +47,62 @@ public class DGCAlgorithm extends ClassicClassificationAlgorithm
 	private CMAEvolutionStrategy cma;
 
 	private CMASolution bestSolution;
+	
+	/** Number of evaluation threads */
+	
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	
+	/** Evaluation executor shared by the evaluator and the classifiers */
+	
+	private transient ForkJoinPool executor;
+	
+	/** Evaluate the population in single precision */
+	
+	private boolean singlePrecision;
+	
+	/** Report how often single and double precision predictions disagree */
+	
+	private boolean precisionValidation;
+	
+	/** Fraction of the instances whose single and double precision predictions disagree in the last run */
+	
+	private double precisionDisagreement = -1;
+	
+	/** Visit each pair of train instances once during the evaluation */
+	
+	private boolean symmetricEvaluation;
+	
+	/** Stop evaluating the individuals that cannot be parents */
+	
+	private boolean racing;
+	
+	/** Initial number of train instances classified in each generation, 0 classifies the whole train set */
+	
+	private int miniBatchSize;
+	
+	/** Initial fraction of the train instances of each class that attract the mini-batch */
+	
+	private double miniBatchAttractors = 1.0;
+	
+	/** Number of nearest instances of each class that attract a query at inference, 0 for all of them */
+	
+	private int truncation;
+	
+	/** Comparison of the top-k and the exact gravitation on the test set, null if not computed */
+	
+	private double[] truncationReport;
+	
+	/** Fitness metric, null for the metric of the evaluator */
+	
+	private DGCFitnessAccumulator fitnessMetric;
+	
+	/** Generate the Gaussian draws of the next generation during the evaluation */
+	
+	private boolean pipelinedSampling;
+	
+	/** Decompose the covariance matrix in parallel by divide and conquer */
+	
+	private boolean parallelEigendecomposition;
 
 	/////////////////////////////////////////////////////////////////
 	// ------------------------------------------------- Constructors
@@ -89,6 +146,13 @@ public class DGCAlgorithm extends ClassicClassificationAlgorithm
 		
 		species = new DGCSpecies();
 		
+		// Pairwise attribute difference cache (budget in MB)
+		((DGCSpecies) species).setPairCache(configuration.getLong("pair-cache-budget", 0) << 20, configuration.getBoolean("pair-cache-quantized", false));
+		
+		// Spatial index for approximate gravitation on low-dimensional data
+		if(configuration.getBoolean("spatial-index", false))
+			((DGCSpecies) species).setSpatialIndex(configuration.getDouble("spatial-index-tolerance", 0.05));
+		
 		((DGCSpecies) species).prepare(getTrainSet(), getTestSet());
 		
 		// Maximum of generations
@@ -100,6 +164,36 @@ public class DGCAlgorithm extends ClassicClassificationAlgorithm
 		// Maximum of iterations
 		maxIterations = configuration.getInt("max-of-iterations", 3);
 		
+		// Number of evaluation threads
+		setParallelism(configuration.getInt("parallelism", 0));
+		
+		// Evaluation precision
+		setSinglePrecision(configuration.getBoolean("single-precision", false));
+		setPrecisionValidation(configuration.getBoolean("precision-validation", false));
+		
+		// Symmetric pair evaluation
+		setSymmetricEvaluation(configuration.getBoolean("symmetric-evaluation", false));
+		
+		// Racing evaluation
+		setRacing(configuration.getBoolean("racing", false));
+		
+		// Mini-batch evaluation
+		setMiniBatchSize(configuration.getInt("mini-batch-size", 0));
+		setMiniBatchAttractors(configuration.getDouble("mini-batch-attractors", 1.0));
+		
+		// Top-k inference
+		setTruncation(configuration.getInt("truncation", 0));
+		
+		// Pipelined sampling
+		setPipelinedSampling(configuration.getBoolean("pipelined-sampling", false));
+		
+		// Parallel eigendecomposition
+		setParallelEigendecomposition(configuration.getBoolean("parallel-eigendecomposition", false));
+		
+		// Fitness metric
+		if(configuration.containsKey("fitness-metric"))
+			setFitnessMetric(DGCFitnessMetrics.get(configuration.getString("fitness-metric"), configuration.getString("cost-matrix", null)));
+		
 		// Population size
 		setPopulationSize(configuration.getInt("population-size"));
 		
@@ -118,7 +212,17 @@ public class DGCAlgorithm extends ClassicClassificationAlgorithm
 	@Override
 	protected void doInit() 
 	{
-		// Nothing to do here
+		((DGCEvaluator) evaluator).setExecutor(getExecutor());
+		((DGCEvaluator) evaluator).setSinglePrecision(singlePrecision);
+		((DGCEvaluator) evaluator).setSymmetric(symmetricEvaluation);
+		
+		if(fitnessMetric != null)
+		{
+			// Fails before the evolution if the metric does not fit the classes, as a wrong cost matrix
+			fitnessMetric.newAccumulator(((DGCSpecies) species).classesNumber);
+			
+			((DGCEvaluator) evaluator).setFitnessAccumulator(fitnessMetric);
+		}
 	}
 	
 	@Override
@@ -143,6 +247,9 @@ public class DGCAlgorithm extends ClassicClassificationAlgorithm
 		cma.options.stopTolFun = 1e-12;     //function value range within iteration and of past values
 		cma.options.stopTolFunHist = 1e-13; // function value range of 10+30*N/lambda past values
 		cma.options.writeDisplayToFile = 0;
+		cma.options.pipelinedSampling = pipelinedSampling ? 1 : 0;
+		cma.options.parallelEigendecomposition = parallelEigendecomposition ? 1 : 0;
+		cma.setExecutor(getExecutor());
 		
 		cma.setSeed(seed + iteration);
 		// Dimension of the array, (number of weights), is the product of the number of attributes and the number of classes
@@ -171,6 +278,12 @@ public class DGCAlgorithm extends ClassicClassificationAlgorithm
 			fitness = cma.init(); // provides array to assign fitness values
 		}
 		
+		// Individuals that cannot be among the mu parents are not fully evaluated
+		((DGCEvaluator) evaluator).setRacing(racing ? cma.parameters.getMu() : 0);
+		
+		// Step size the mini-batches are scaled against
+		double initialSigma = cma.getSigma();
+		
 		// set additional termination criterion
 		if(maxOfGenerations != 0)
 			cma.options.stopMaxIter = maxOfGenerations;
@@ -182,12 +295,32 @@ public class DGCAlgorithm extends ClassicClassificationAlgorithm
 		{
 			pop = cma.samplePopulation(); // get a new population of solutions
 			
+			// Mini-batches grow as the step size shrinks, to tell apart closer solutions
+			if(miniBatchSize > 0)
+			{
+				double scale = initialSigma / cma.getSigma();
+				
+				((DGCEvaluator) evaluator).setMiniBatch((int) Math.min(Integer.MAX_VALUE, miniBatchSize * scale), Math.min(1.0, miniBatchAttractors * scale));
+			}
+			
 			fitness = ((DGCEvaluator) evaluator).valuesOf(pop);
 			
 			cma.updateDistribution(fitness);  // pass fitness array to update search distribution
 		}
 		
+		// The best solution is selected on the whole train set
+		if(miniBatchSize > 0 && pop != null)
+			fitness = ((DGCEvaluator) evaluator).fullValuesOf(pop);
+		
 		bestSolutions.add(((DGCEvaluator) evaluator).bestSolution(pop, fitness));
+		
+		// Validate the single precision predictions on the last population
+		if(singlePrecision && precisionValidation && pop != null)
+		{
+			precisionDisagreement = ((DGCEvaluator) evaluator).precisionDisagreement(pop);
+			
+			cma.println("Single precision predictions differ from double precision in " + 100 * precisionDisagreement + "% of the instances");
+		}
 
 		// evaluate mean value as it is the best estimator for the optimum
 		cma.setFitnessOfMeanX(((DGCEvaluator) evaluator).valueOf(cma.getMeanX())); // updates the best ever solution 
@@ -233,6 +366,16 @@ public class DGCAlgorithm extends ClassicClassificationAlgorithm
 			classifier = new GravitationClassifier((DGCSpecies) species);
 			
 			((GravitationClassifier) classifier).setWeights(bestSolution.getX());
+			((GravitationClassifier) classifier).setExecutor(getExecutor());
+			
+			// Compare the top-k gravitation with the exact one on the test set
+			if(truncation > 0)
+			{
+				((GravitationClassifier) classifier).setTruncation(truncation);
+				
+				if(getTestSet() != null)
+					truncationReport = ((GravitationClassifier) classifier).truncationReport(getTestSet());
+			}
 			
 			state = FINISHED;
 		}
@@ -277,4 +420,198 @@ public class DGCAlgorithm extends ClassicClassificationAlgorithm
 	public CMASolution getBestSolution() {
 		return bestSolution;
 	}
+	
+	/**
+	 * @return the number of evaluation threads
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	/**
+	 * @param parallelism the number of evaluation threads, 0 for as many as CPU cores
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * @return true if the population is evaluated in single precision
+	 */
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+	
+	/**
+	 * @param singlePrecision evaluate the population in single precision
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+	
+	/**
+	 * @return true if the disagreement between single and double precision is reported
+	 */
+	public boolean isPrecisionValidation() {
+		return precisionValidation;
+	}
+	
+	/**
+	 * @param precisionValidation report at the end of each CMA-ES run how often
+	 * single and double precision predict a different class
+	 */
+	public void setPrecisionValidation(boolean precisionValidation) {
+		this.precisionValidation = precisionValidation;
+	}
+	
+	/**
+	 * @return the fraction of the train instances whose single and double precision
+	 * predictions disagree in the last CMA-ES run, -1 if not validated
+	 */
+	public double getPrecisionDisagreement() {
+		return precisionDisagreement;
+	}
+	
+	/**
+	 * @return true if each pair of train instances is visited once during the evaluation
+	 */
+	public boolean isSymmetricEvaluation() {
+		return symmetricEvaluation;
+	}
+	
+	/**
+	 * @param symmetricEvaluation visit each pair of train instances once during the evaluation,
+	 * not together with the spatial index of the species
+	 */
+	public void setSymmetricEvaluation(boolean symmetricEvaluation) {
+		this.symmetricEvaluation = symmetricEvaluation;
+	}
+	
+	/**
+	 * @return true if the individuals that cannot be parents are not fully evaluated
+	 */
+	public boolean isRacing() {
+		return racing;
+	}
+	
+	/**
+	 * @param racing stop evaluating the individuals that cannot be parents
+	 */
+	public void setRacing(boolean racing) {
+		this.racing = racing;
+	}
+	
+	/**
+	 * @return the initial number of train instances classified in each generation
+	 */
+	public int getMiniBatchSize() {
+		return miniBatchSize;
+	}
+	
+	/**
+	 * @param miniBatchSize initial number of train instances classified in each
+	 * generation, it grows as the CMA-ES step size shrinks; 0 classifies the whole train set
+	 */
+	public void setMiniBatchSize(int miniBatchSize) {
+		this.miniBatchSize = miniBatchSize;
+	}
+	
+	/**
+	 * @return the initial fraction of the train instances that attract the mini-batch
+	 */
+	public double getMiniBatchAttractors() {
+		return miniBatchAttractors;
+	}
+	
+	/**
+	 * @param miniBatchAttractors initial fraction of the train instances of each class
+	 * that attract the mini-batch, it grows as the CMA-ES step size shrinks. Below 1
+	 * the symmetric evaluation, the spatial index and the pair cache are not used.
+	 */
+	public void setMiniBatchAttractors(double miniBatchAttractors) {
+		this.miniBatchAttractors = miniBatchAttractors;
+	}
+	
+	/**
+	 * @return the number of nearest instances of each class that attract a query at inference
+	 */
+	public int getTruncation() {
+		return truncation;
+	}
+	
+	/**
+	 * @param truncation number of nearest instances of each class that attract a
+	 * query at inference, 0 for all of them
+	 */
+	public void setTruncation(int truncation) {
+		this.truncation = truncation;
+	}
+	
+	/**
+	 * @return the mean relative difference between the top-k and the exact
+	 * gravitation on the test set, and the fraction of test instances for which
+	 * both predict the same class, null without truncation or test set
+	 */
+	public double[] getTruncationReport() {
+		return truncationReport;
+	}
+	
+	/**
+	 * @return true if the Gaussian draws of the next generation are generated during the evaluation
+	 */
+	public boolean isPipelinedSampling() {
+		return pipelinedSampling;
+	}
+	
+	/**
+	 * @param pipelinedSampling generate the Gaussian draws of the next generation
+	 * during the evaluation and sample the population in parallel
+	 */
+	public void setPipelinedSampling(boolean pipelinedSampling) {
+		this.pipelinedSampling = pipelinedSampling;
+	}
+	
+	/**
+	 * @return true if the covariance matrix is decomposed in parallel by divide and conquer
+	 */
+	public boolean isParallelEigendecomposition() {
+		return parallelEigendecomposition;
+	}
+	
+	/**
+	 * @param parallelEigendecomposition decompose the covariance matrix in parallel
+	 * by divide and conquer, faster with many attributes and classes
+	 */
+	public void setParallelEigendecomposition(boolean parallelEigendecomposition) {
+		this.parallelEigendecomposition = parallelEigendecomposition;
+	}
+	
+	/**
+	 * @return the fitness metric, null for the metric of the evaluator
+	 */
+	public DGCFitnessAccumulator getFitnessMetric() {
+		return fitnessMetric;
+	}
+	
+	/**
+	 * @param fitnessMetric fitness accumulator prototype of the metric to minimize,
+	 * see DGCFitnessMetrics; null for the metric of the evaluator
+	 */
+	public void setFitnessMetric(DGCFitnessAccumulator fitnessMetric) {
+		this.fitnessMetric = fitnessMetric;
+	}
+	
+	/**
+	 * Returns the evaluation executor, created on first use and kept for the
+	 * whole run. Nested tasks (individuals, then instances) are forked into the
+	 * same pool, so the machine is never oversubscribed.
+	 * 
+	 * @return the evaluation executor
+	 */
+	public synchronized ForkJoinPool getExecutor() {
+		if(executor == null)
+			executor = new ForkJoinPool(parallelism);
+		
+		return executor;
+	}
 }
\ No newline at end of file
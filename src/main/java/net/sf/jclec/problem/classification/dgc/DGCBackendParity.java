@@ -0,0 +1,324 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import net.sf.jclec.problem.classification.classic.ClassicClassificationMetadata;
+import net.sf.jclec.problem.util.dataset.ArffDataSet;
+
+/**
+ * Java backend parity check
+ *
+ * Evaluates random populations with the Java backend, the single precision
+ * mirror of the CUDA kernels, and compares the confusion matrices of each
+ * individual with those of a reference.
+ *
+ * With -g the reference is the native backend, and the check fails if any
+ * confusion matrix differs, as both evaluate in single precision in the same
+ * order of operations. It requires the jclec_gpu library and a GPU device.
+ *
+ * Otherwise the reference is the double precision engine of the evaluator,
+ * so the check runs on any host. The matrices then differ on the instances
+ * whose gravitations are too close to be told apart in single precision,
+ * and on the instances that coincide with another one for the weights of
+ * its class. The kernel divides by a zero distance and predicts the first
+ * class with an infinite gravitation, while the engine saturates it to the
+ * largest value and weights it by the class prior, so the coincident
+ * instances are allowed to differ. The check fails when the other instances
+ * that change their class exceed the tolerance for any individual.
+ *
+ * Usage: DGCBackendParity [-t train.arff] [-p population size] [-s seed] [-e tolerance] [-g]
+ *
+ * Without a train set a small synthetic dataset with numerical and
+ * categorical attributes is generated, so the check can run unattended. The
+ * parity profile of the build runs the check against the engine in the test
+ * phase, and the parity-gpu profile against the native backend.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCBackendParity
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	/** Number of instances of the synthetic dataset */
+	
+	private static final int SYNTHETIC_INSTANCES = 300;
+	
+	/** Number of numerical attributes of the synthetic dataset */
+	
+	private static final int SYNTHETIC_NUMERICAL = 4;
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Runs the parity check, the exit status is 1 if it fails
+	 *
+	 * @param args the options
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		String fileName = null;
+		int popSize = 20;
+		long seed = 1;
+		double tolerance = 0.01;
+		boolean nativeReference = false;
+		
+		for(int i = 0; i < args.length; i++)
+		{
+			if(args[i].equals("-t") && i + 1 < args.length)
+				fileName = args[++i];
+			else if(args[i].equals("-p") && i + 1 < args.length)
+				popSize = Integer.parseInt(args[++i]);
+			else if(args[i].equals("-s") && i + 1 < args.length)
+				seed = Long.parseLong(args[++i]);
+			else if(args[i].equals("-e") && i + 1 < args.length)
+				tolerance = Double.parseDouble(args[++i]);
+			else if(args[i].equals("-g"))
+				nativeReference = true;
+			else
+				throw new IllegalArgumentException("Usage: DGCBackendParity [-t train.arff] [-p population size] [-s seed] [-e tolerance] [-g]");
+		}
+		
+		if(popSize < 2)
+			throw new IllegalArgumentException("The population size must be at least 2");
+		
+		if(tolerance < 0)
+			throw new IllegalArgumentException("The tolerance must not be negative");
+		
+		File file;
+		
+		if(fileName != null)
+			file = new File(fileName);
+		else
+		{
+			file = File.createTempFile("dgc-parity", ".arff");
+			file.deleteOnExit();
+			writeSynthetic(file, seed);
+		}
+		
+		ArffDataSet trainSet = new ArffDataSet();
+		trainSet.setFileName(file.getPath());
+		trainSet.setMetadata(new ClassicClassificationMetadata());
+		trainSet.loadExamples();
+		
+		if(trainSet.getExamples().isEmpty())
+			throw new IllegalArgumentException("The train set " + file.getPath() + " has no instances");
+		
+		DGCSpecies species = new DGCSpecies();
+		species.prepare(trainSet, null);
+		
+		DGCAlgorithmGPU algorithm = new DGCAlgorithmGPU();
+		algorithm.setTrainSet(trainSet);
+		algorithm.setSpecies(species);
+		algorithm.setPopulationSize(popSize);
+		
+		double[][] pop = population(popSize, species.attributesNumber * species.classesNumber, seed);
+		
+		int[][][] javaMatrices = confusionMatrices(algorithm, species, new DGCJavaBackend(algorithm.getExecutor()), pop);
+		int[][][] referenceMatrices;
+		
+		if(nativeReference)
+		{
+			DGCNativeBackend backend = DGCNativeBackend.acquire();
+			
+			if(backend == null)
+				throw new IllegalStateException("The jclec_gpu library is not available or the GPU devices are in use");
+			
+			try
+			{
+				referenceMatrices = confusionMatrices(algorithm, species, backend, pop);
+			}
+			finally
+			{
+				DGCNativeBackend.freePool();
+			}
+		}
+		else
+			referenceMatrices = new DGCEvaluationEngine(species).evaluate(pop, algorithm.getExecutor());
+		
+		int numberInstances = trainSet.getExamples().size();
+		int failures = 0;
+		
+		for(int k = 0; k < pop.length; k++)
+		{
+			// Each instance that changes its class moves one count out of a cell and into another
+			int differences = 0;
+			
+			for(int i = 0; i < species.classesNumber; i++)
+				for(int j = 0; j < species.classesNumber; j++)
+					differences += Math.abs(javaMatrices[k][i][j] - referenceMatrices[k][i][j]);
+			
+			differences /= 2;
+			
+			if(differences > 0)
+			{
+				// The native backend must match exactly
+				int coincident = nativeReference ? 0 : coincident(species, pop[k]);
+				boolean fails = nativeReference || differences > coincident + tolerance * numberInstances;
+				
+				if(fails)
+					failures++;
+				
+				System.out.println("Individual " + k + ": " + differences + " of " + numberInstances + " instances differ" + (nativeReference ? "" : ", " + coincident + " coincident") + (fails ? ", above the tolerance" : ""));
+				System.out.println("  Java backend:   " + Arrays.deepToString(javaMatrices[k]));
+				System.out.println((nativeReference ? "  Native backend: " : "  Engine:         ") + Arrays.deepToString(referenceMatrices[k]));
+			}
+		}
+		
+		algorithm.getExecutor().shutdown();
+		
+		System.out.println(failures == 0 ? "Parity check passed for " + pop.length + " individuals" : "Parity check failed for " + failures + " of " + pop.length + " individuals");
+		
+		if(failures > 0)
+			System.exit(1);
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ---------------------------------------------- Private methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Computes the confusion matrices of the population with a backend
+	 * 
+	 * @param algorithm algorithm of the train set
+	 * @param species gravity species
+	 * @param backend evaluation backend
+	 * @param pop population of weight matrices
+	 * @return the confusion matrix of each individual
+	 */
+	private static int[][][] confusionMatrices(DGCAlgorithmGPU algorithm, DGCSpecies species, DGCEvaluationBackend backend, double[][] pop)
+	{
+		DGCEvaluatorGPU evaluator = new DGCEvaluatorGPU(species);
+		evaluator.setBackend(backend);
+		algorithm.setEvaluator(evaluator);
+		
+		try
+		{
+			evaluator.prepare(algorithm);
+			return evaluator.confusionMatrices(pop);
+		}
+		finally
+		{
+			evaluator.close();
+		}
+	}
+	
+	/**
+	 * Generates the population, random weights in [0,1] but for an individual
+	 * with all the weights to zero and another with half of them to zero, that
+	 * exercise the coincident instances of the kernel
+	 *
+	 * @param popSize population size
+	 * @param dimension number of weights of each individual
+	 * @param seed random seed
+	 * @return the population
+	 */
+	private static double[][] population(int popSize, int dimension, long seed)
+	{
+		Random random = new Random(seed);
+		double[][] pop = new double[popSize][dimension];
+		
+		for(int k = 2; k < popSize; k++)
+			for(int i = 0; i < dimension; i++)
+				pop[k][i] = random.nextDouble();
+		
+		for(int i = 0; i < dimension; i++)
+			pop[1][i] = i % 2 == 0 ? 0 : random.nextDouble();
+		
+		return pop;
+	}
+	
+	/**
+	 * Counts the instances at a zero distance of another one, for the weights
+	 * of the class of the other instance
+	 * 
+	 * @param species gravity species
+	 * @param weights weight matrix of the individual
+	 * @return the number of coincident instances
+	 */
+	private static int coincident(DGCSpecies species, double[] weights)
+	{
+		double[] data = species.getData();
+		int[] classes = species.getClasses();
+		int numberRows = classes.length;
+		int numberAttributes = species.attributesNumber;
+		int count = 0;
+		
+		for(int q = 0; q < numberRows; q++)
+			rows:
+			for(int j = 0; j < numberRows; j++)
+			{
+				if(j == q)
+					continue;
+				
+				int base = classes[j] * numberAttributes;
+				
+				for(int i = 0; i < numberAttributes; i++)
+				{
+					double x = data[i*numberRows + q], y = data[i*numberRows + j];
+					
+					if(weights[base + i] != 0 && x != y)
+						continue rows;
+				}
+				
+				count++;
+				break;
+			}
+		
+		return count;
+	}
+	
+	/**
+	 * Writes a synthetic dataset of unbalanced classes, numerical attributes
+	 * around a center for each class and a categorical attribute that follows
+	 * the class most of the times
+	 *
+	 * @param file the ARFF file
+	 * @param seed random seed
+	 */
+	private static void writeSynthetic(File file, long seed) throws IOException
+	{
+		Random random = new Random(seed);
+		
+		try(PrintWriter writer = new PrintWriter(file))
+		{
+			writer.println("@relation dgc-parity");
+			
+			for(int i = 0; i < SYNTHETIC_NUMERICAL; i++)
+				writer.println("@attribute x" + i + " numeric");
+			
+			writer.println("@attribute color {red,green,blue}");
+			writer.println("@attribute class {c0,c1,c2}");
+			writer.println("@data");
+			
+			String[] colors = {"red", "green", "blue"};
+			
+			for(int n = 0; n < SYNTHETIC_INSTANCES; n++)
+			{
+				// Unbalanced classes, so the priors weight the gravitations
+				double u = random.nextDouble();
+				int c = u < 0.5 ? 0 : u < 0.8 ? 1 : 2;
+				StringBuilder line = new StringBuilder();
+				
+				for(int i = 0; i < SYNTHETIC_NUMERICAL; i++)
+					line.append(String.format(Locale.ROOT, "%.4f,", c * (i + 1) * 0.5 + random.nextGaussian()));
+				
+				line.append(colors[random.nextDouble() < 0.7 ? c : random.nextInt(colors.length)]).append(',');
+				line.append("c").append(c);
+				
+				writer.println(line);
+			}
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package net.sf.jclec.problem.classification.dgc;
+
+/**
+ * Balanced accuracy fitness accumulator
+ *
+ * Arithmetic mean of the recall of each class. Classes without instances are
+ * not considered.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCBalancedAccuracyAccumulator extends DGCFitnessAccumulator
+{
+	private static final long serialVersionUID = -8823160715473026934L;
+	
+	/**
+	 * Computes the fitness from a confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 * @return 1.0 - balanced accuracy
+	 */
+	public double valueOf(int[][] confusionMatrix)
+	{
+		double recall = 0.0;
+		int classes = 0;
+		
+		for(int i = 0; i < confusionMatrix.length; i++)
+		{
+			int actual = 0;
+			
+			for(int j = 0; j < confusionMatrix.length; j++)
+				actual += confusionMatrix[i][j];
+			
+			if(actual == 0)
+				continue;
+			
+			recall += confusionMatrix[i][i] / (double) actual;
+			classes++;
+		}
+		
+		return classes == 0 ? 1.0 : 1.0 - recall / classes;
+	}
+}
@@ -0,0 +1,28 @@
+package net.sf.jclec.problem.classification.dgc;
+
+/**
+ * Binary AUC fitness accumulator
+ *
+ * Area under the ROC curve of the crisp predictions of a two-class problem,
+ * the first class being the positive one.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCBinaryAUCAccumulator extends DGCFitnessAccumulator
+{
+	private static final long serialVersionUID = 7409612335284913645L;
+	
+	/**
+	 * Computes the fitness from a two-class confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 * @return 1.0 - AUC
+	 */
+	public double valueOf(int[][] confusionMatrix)
+	{
+		// Compute the Area Under the Curve (AUC)
+		return 1.0 - (1.0 + (confusionMatrix[0][0] / (double)  (confusionMatrix[0][0]+confusionMatrix[0][1])) - (confusionMatrix[1][0] / (double) (confusionMatrix[1][1]+confusionMatrix[1][0])))/2.0;
+	}
+}
@@ -86,21 +86,7 @@ public class DGCClassifier implements IClassicClassifier
 
 	public double classify(IExample inst)
 	{
-		double maxGravity = -1;
-		int maxGravityClass = 0;
-
-		for(int i = 0; i < species.getDataset().getMetadata().numberOfClasses(); i++)
-		{
-			double gravity = gravity(inst, i);
-			
-			if(gravity > maxGravity)
-			{
-				maxGravity = gravity;
-				maxGravityClass = i;
-			}
-		}
-		
-		return maxGravityClass;
+		return classify(values(inst), species.getRow(inst));
 	}
 	
 	public double[] classify(IDataset dataset)
@@ -108,40 +94,116 @@ public class DGCClassifier implements IClassicClassifier
 		ArrayList<IExample> instances = dataset.getExamples();
 		double[] predicted = new double[instances.size()];
 		
-		for(int i = 0; i < instances.size(); i++)
-			predicted[i] = classify(instances.get(i));
+		// Train instances are excluded from their own gravitation
+		if(dataset == species.getDataset())
+			for(int i = 0; i < instances.size(); i++)
+				predicted[i] = classify(values(species.getRow(i)), species.getRow(i));
+		else
+			for(int i = 0; i < instances.size(); i++)
+				predicted[i] = classify(values(instances.get(i)), species.getRow(instances.get(i)));
 		
 		return predicted;		
 	}
 	
 	public double gravity(IExample inst, int Class)
 	{
-		ArrayList<IExample> instances = species.getDataset().getExamples();
+		double[] query = values(inst);
+		int[] classOffsets = species.getClassOffsets();
+		
+		// A train example is excluded from its own gravitation, its row splits its class block in two ranges
+		int self = species.getRow(inst);
+		int end = classOffsets[Class+1];
+		int split = self >= classOffsets[Class] && self < end ? self : end;
 		
 		double gravity = 0.0;
 		
-		for(int i = 0; i < instances.size(); i++)
-			if(((ClassicInstance) instances.get(i)).getClassValue() == Class && instances.get(i) != inst)
-				gravity += ((ClassicInstance) instances.get(i)).getWeight() / distance(inst, instances.get(i));
+		for(int first = classOffsets[Class], last = split; first < end; first = last + 1, last = end)
+			for(int j = first; j < last; j++)
+				gravity += species.getInstanceWeights()[j] / distance(query, j);
 		
 		return gravity;
 	}
 	
-	private double distance(IExample inst1, IExample inst2)
+	/**
+	 * Predicts the class with the highest gravitation, computing the
+	 * gravitation to every class in a single pass over the class blocks
+	 * @param query attribute values
+	 * @param self packed row of the query to exclude, -1 if the query is not a train row
+	 * @return predicted class
+	 */
+	private double classify(double[] query, int self)
+	{
+		double[] instanceWeights = species.getInstanceWeights();
+		int[] classOffsets = species.getClassOffsets();
+		
+		double maxGravity = -1;
+		int maxGravityClass = 0;
+		
+		for(int i = 0; i < species.classesNumber; i++)
+		{
+			double gravity = 0.0;
+			
+			// The query row, if it belongs to the block, splits it in two ranges
+			int end = classOffsets[i+1];
+			int split = self >= classOffsets[i] && self < end ? self : end;
+			
+			for(int first = classOffsets[i], last = split; first < end; first = last + 1, last = end)
+				for(int j = first; j < last; j++)
+					gravity += instanceWeights[j] / distance(query, j);
+			
+			if(gravity > maxGravity)
+			{
+				maxGravity = gravity;
+				maxGravityClass = i;
+			}
+		}
+		
+		return maxGravityClass;
+	}
+	
+	private double distance(double[] query, int row)
 	{
-		int numAttributes = ((ClassicInstance) inst1).getValues().length - 1;
+		double[] data = species.getData();
+		int numberRows = species.getNumberRows();
+		int numAttributes = species.attributesNumber - 1;
 		
 		double distance = 0.0;
 		
 		if(weights != null)
 			for(int i = 0; i < numAttributes; i++)
-				distance += weights[i] * Math.pow((inst2.getValue(i) - inst1.getValue(i)) / species.getRange(i), 2);
+			{
+				double diff = (data[i*numberRows + row] - query[i]) / species.getRange(i);
+				distance += weights[i] * (diff * diff);
+			}
 		else
 			for(int i = 0; i < numAttributes; i++)
-				distance += Math.pow((inst2.getValue(i) - inst1.getValue(i)) / species.getRange(i), 2);
+			{
+				double diff = (data[i*numberRows + row] - query[i]) / species.getRange(i);
+				distance += diff * diff;
+			}
 		
 		return distance;
 	}
+	
+	private double[] values(IExample inst)
+	{
+		double[] values = new double[species.attributesNumber];
+		
+		for(int i = 0; i < values.length; i++)
+			values[i] = inst.getValue(i);
+		
+		return values;
+	}
+	
+	private double[] values(int row)
+	{
+		double[] values = new double[species.attributesNumber];
+		
+		for(int i = 0; i < values.length; i++)
+			values[i] = species.getData()[i*species.getNumberRows() + row];
+		
+		return values;
+	}
 
 	@Override
 	public DGCClassifier copy()
@@ -0,0 +1,149 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cost-sensitive fitness accumulator
+ *
+ * Mean misclassification cost per instance given a cost matrix, actual class
+ * by rows and predicted class by columns. Without a cost matrix every error
+ * costs one and the fitness is the error rate.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCCostSensitiveAccumulator extends DGCFitnessAccumulator
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	private static final long serialVersionUID = 1904466513092735170L;
+	
+	/** Cost of predicting each class for each actual class, null for unit costs */
+	
+	private double[][] costMatrix;
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	public DGCCostSensitiveAccumulator()
+	{
+		super();
+	}
+	
+	public DGCCostSensitiveAccumulator(double[][] costMatrix)
+	{
+		super();
+		
+		this.costMatrix = costMatrix;
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @return the cost matrix, null for unit costs
+	 */
+	public double[][] getCostMatrix()
+	{
+		return costMatrix;
+	}
+	
+	/**
+	 * @param costMatrix cost of predicting each class (columns) for each actual class (rows), null for unit costs
+	 */
+	public void setCostMatrix(double[][] costMatrix)
+	{
+		this.costMatrix = costMatrix;
+	}
+	
+	/**
+	 * Returns an empty accumulator of the same cost matrix
+	 * @param numberClasses number of classes
+	 * @return the accumulator
+	 * @throws IllegalArgumentException if the cost matrix does not have a row and a column per class
+	 */
+	@Override
+	public DGCFitnessAccumulator newAccumulator(int numberClasses)
+	{
+		if(costMatrix != null && costMatrix.length != numberClasses)
+			throw new IllegalArgumentException("The cost matrix is " + costMatrix.length + "x" + costMatrix.length + " but the data has " + numberClasses + " classes");
+		
+		return super.newAccumulator(numberClasses);
+	}
+	
+	/**
+	 * Computes the fitness from a confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 * @return the mean cost per instance
+	 */
+	public double valueOf(int[][] confusionMatrix)
+	{
+		double cost = 0.0;
+		int total = 0;
+		
+		for(int i = 0; i < confusionMatrix.length; i++)
+			for(int j = 0; j < confusionMatrix.length; j++)
+			{
+				total += confusionMatrix[i][j];
+				
+				if(costMatrix != null)
+					cost += confusionMatrix[i][j] * costMatrix[i][j];
+				else if(i != j)
+					cost += confusionMatrix[i][j];
+			}
+		
+		return cost / total;
+	}
+	
+	/**
+	 * Parses a cost matrix written by rows, rows separated by semicolons and
+	 * values by blanks or commas, optionally within brackets: "[0 1; 5 0]".
+	 * Empty rows, as after a trailing semicolon, are skipped.
+	 * @param matrix the cost matrix
+	 * @return the parsed matrix
+	 * @throws IllegalArgumentException if a cost is not a number or the matrix is not square
+	 */
+	public static double[][] parseCostMatrix(String matrix)
+	{
+		List<double[]> rows = new ArrayList<double[]>();
+		
+		for(String row : matrix.replace('[', ' ').replace(']', ' ').split(";"))
+		{
+			if(row.trim().length() == 0)
+				continue;
+			
+			String[] values = row.trim().split("[\\s,]+");
+			double[] costs = new double[values.length];
+			
+			for(int j = 0; j < values.length; j++)
+			{
+				try
+				{
+					costs[j] = Double.parseDouble(values[j]);
+				}
+				catch(NumberFormatException e)
+				{
+					throw new IllegalArgumentException("Cost " + values[j] + " is not a number in the cost matrix " + matrix);
+				}
+			}
+			
+			rows.add(costs);
+		}
+		
+		if(rows.isEmpty())
+			throw new IllegalArgumentException("The cost matrix is empty: " + matrix);
+		
+		for(double[] row : rows)
+			if(row.length != rows.size())
+				throw new IllegalArgumentException("Cost matrix is not square: " + matrix);
+		
+		return rows.toArray(new double[rows.size()][]);
+	}
+}
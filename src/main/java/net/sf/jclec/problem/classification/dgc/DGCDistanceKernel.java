@@ -0,0 +1,216 @@
+package net.sf.jclec.problem.classification.dgc;
+
+/**
+ * Distance kernel
+ *
+ * Inner loops of the weighted distance between an attribute value and a range
+ * of packed rows. This implementation is scalar; the vectorized implementation
+ * based on the JDK Vector API is used instead when the jdk.incubator.vector
+ * module is available at runtime.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCDistanceKernel
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	/** Vectorized kernel class */
+	
+	private static final String VECTOR_KERNEL = "net.sf.jclec.problem.classification.dgc.DGCVectorDistanceKernel";
+	
+	/** Kernel instance */
+	
+	private static DGCDistanceKernel instance;
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	protected DGCDistanceKernel()
+	{
+		super();
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Returns the vectorized kernel if the Vector API is available, or the scalar kernel otherwise
+	 * @return the distance kernel
+	 */
+	public static synchronized DGCDistanceKernel getInstance()
+	{
+		if(instance == null)
+		{
+			try {
+				Class<?> vectorKernel = Class.forName(VECTOR_KERNEL);
+				
+				if((Boolean) vectorKernel.getMethod("isSupported").invoke(null))
+					instance = (DGCDistanceKernel) vectorKernel.getDeclaredConstructor().newInstance();
+			} catch (Throwable e) {
+				// The vector module is not available
+			}
+			
+			if(instance == null)
+				instance = new DGCDistanceKernel();
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * @return true if the kernel is vectorized
+	 */
+	public boolean isVectorized()
+	{
+		return false;
+	}
+	
+	/**
+	 * Accumulates the weighted squared difference between a numerical value and a range of values
+	 * @param data packed values
+	 * @param column position of the first value of the range
+	 * @param value attribute value
+	 * @param weight attribute weight
+	 * @param distances distance accumulators
+	 * @param offset position of the accumulator of the first value
+	 * @param length number of values
+	 */
+	public void numerical(double[] data, int column, double value, double weight, double[] distances, int offset, int length)
+	{
+		for(int j = 0; j < length; j++)
+		{
+			double diff = data[column + j] - value;
+			distances[offset + j] += weight * (diff * diff);
+		}
+	}
+	
+	/**
+	 * Accumulates the weight of the values of a range that differ from a categorical value
+	 * @param data packed values
+	 * @param column position of the first value of the range
+	 * @param value attribute value
+	 * @param weight attribute weight
+	 * @param distances distance accumulators
+	 * @param offset position of the accumulator of the first value
+	 * @param length number of values
+	 */
+	public void categorical(double[] data, int column, double value, double weight, double[] distances, int offset, int length)
+	{
+		for(int j = 0; j < length; j++)
+			distances[offset + j] += data[column + j] == value ? 0 : weight;
+	}
+	
+	/**
+	 * Computes the squared differences between a numerical value and a range of values
+	 * @param data packed values
+	 * @param column position of the first value of the range
+	 * @param value attribute value
+	 * @param terms destination
+	 * @param length number of values
+	 */
+	public void numericalTerms(double[] data, int column, double value, double[] terms, int length)
+	{
+		for(int j = 0; j < length; j++)
+		{
+			double diff = data[column + j] - value;
+			terms[j] = diff * diff;
+		}
+	}
+	
+	/**
+	 * Computes the mismatches (0 or 1) between a categorical value and a range of values
+	 * @param data packed values
+	 * @param column position of the first value of the range
+	 * @param value attribute value
+	 * @param terms destination
+	 * @param length number of values
+	 */
+	public void categoricalTerms(double[] data, int column, double value, double[] terms, int length)
+	{
+		for(int j = 0; j < length; j++)
+			terms[j] = data[column + j] == value ? 0 : 1;
+	}
+	
+	/**
+	 * Accumulates weighted terms to a range of distances
+	 * @param distances distance accumulators
+	 * @param offset position of the first accumulator
+	 * @param weight attribute weight
+	 * @param terms attribute terms
+	 * @param column position of the first term
+	 * @param length number of terms
+	 */
+	public void accumulate(double[] distances, int offset, double weight, double[] terms, int column, int length)
+	{
+		for(int j = 0; j < length; j++)
+			distances[offset + j] += weight * terms[column + j];
+	}
+	
+	/**
+	 * Accumulates weighted single precision terms to a range of distances
+	 * @param distances distance accumulators
+	 * @param offset position of the first accumulator
+	 * @param weight attribute weight
+	 * @param terms attribute terms
+	 * @param column position of the first term
+	 * @param length number of terms
+	 */
+	public void accumulate(double[] distances, int offset, double weight, float[] terms, int column, int length)
+	{
+		for(int j = 0; j < length; j++)
+			distances[offset + j] += weight * terms[column + j];
+	}
+	
+	/**
+	 * Computes the squared differences between a numerical value and a range of values in single precision
+	 * @param data packed values
+	 * @param column position of the first value of the range
+	 * @param value attribute value
+	 * @param terms destination
+	 * @param length number of values
+	 */
+	public void numericalTerms(float[] data, int column, float value, float[] terms, int length)
+	{
+		for(int j = 0; j < length; j++)
+		{
+			float diff = data[column + j] - value;
+			terms[j] = diff * diff;
+		}
+	}
+	
+	/**
+	 * Computes the mismatches (0 or 1) between a categorical value and a range of values in single precision
+	 * @param data packed values
+	 * @param column position of the first value of the range
+	 * @param value attribute value
+	 * @param terms destination
+	 * @param length number of values
+	 */
+	public void categoricalTerms(float[] data, int column, float value, float[] terms, int length)
+	{
+		for(int j = 0; j < length; j++)
+			terms[j] = data[column + j] == value ? 0 : 1;
+	}
+	
+	/**
+	 * Accumulates weighted terms to a range of distances in single precision
+	 * @param distances distance accumulators
+	 * @param offset position of the first accumulator
+	 * @param weight attribute weight
+	 * @param terms attribute terms
+	 * @param column position of the first term
+	 * @param length number of terms
+	 */
+	public void accumulate(float[] distances, int offset, float weight, float[] terms, int column, int length)
+	{
+		for(int j = 0; j < length; j++)
+			distances[offset + j] += weight * terms[column + j];
+	}
+}
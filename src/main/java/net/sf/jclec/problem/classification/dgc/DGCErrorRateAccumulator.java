@@ -0,0 +1,36 @@
+package net.sf.jclec.problem.classification.dgc;
+
+/**
+ * Error rate fitness accumulator
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCErrorRateAccumulator extends DGCFitnessAccumulator
+{
+	private static final long serialVersionUID = -1270683497284102913L;
+	
+	/**
+	 * Computes the fitness from a confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 * @return the error rate
+	 */
+	public double valueOf(int[][] confusionMatrix)
+	{
+		int fails = 0, total = 0;
+		
+		for(int i = 0; i < confusionMatrix.length; i++)
+			for(int j = 0; j < confusionMatrix.length; j++)
+			{
+				total += confusionMatrix[i][j];
+				
+				if(i != j)
+					fails += confusionMatrix[i][j];
+			}
+		
+		// Compute the error rate
+		return fails / (double) total;
+	}
+}
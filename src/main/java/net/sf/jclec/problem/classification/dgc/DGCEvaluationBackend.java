@@ -0,0 +1,53 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Evaluation backend of the GPU evaluator
+ *
+ * Computes the confusion matrix of every individual of a population on the
+ * train set (leave-one-out), as the gravitation kernels of the jclec_gpu
+ * library do. All the data is exchanged through direct buffers in native byte
+ * order: the train set is passed once when the backend is prepared, and then
+ * the weights of each population and the buffer that receives its confusion
+ * matrices.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public interface DGCEvaluationBackend
+{
+	/**
+	 * Copies the train set and allocates the evaluation memory
+	 * @param popSize population size
+	 * @param numThreads number of CPU threads or GPU devices
+	 * @param numberAttributes number of attributes
+	 * @param numberInstances number of train instances
+	 * @param numberClasses number of classes
+	 * @param instances train values in single precision, by columns
+	 * @param classes class label of each instance
+	 * @param numberInstancesClass number of instances of each class
+	 * @param numerical 1 for the numerical attributes, 0 for the categorical ones
+	 */
+	public void malloc(int popSize, int numThreads, int numberAttributes, int numberInstances, int numberClasses, ByteBuffer instances, ByteBuffer classes, ByteBuffer numberInstancesClass, ByteBuffer numerical);
+	
+	/**
+	 * Computes the confusion matrices of a population
+	 * @param popSize population size
+	 * @param weights weight matrices in single precision, one after another
+	 * @param confusionMatrices the confusion matrix of each individual, actual class by rows
+	 */
+	public void evaluate(int popSize, ByteBuffer weights, ByteBuffer confusionMatrices);
+	
+	/**
+	 * Releases the evaluation memory, or keeps it in a pool for the next backend
+	 */
+	public void free();
+	
+	/**
+	 * @return true if the backend evaluates on the GPU devices
+	 */
+	public boolean isNative();
+}
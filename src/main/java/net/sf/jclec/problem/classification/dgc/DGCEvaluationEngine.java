@@ -0,0 +1,593 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Gravitation evaluation engine
+ *
+ * Evaluates a population on the train set (leave-one-out) splitting the
+ * (individual block, instance block) space into tiles that are scheduled
+ * by work stealing. Each tile sweeps the packed train matrix in row blocks
+ * small enough to stay in cache while all the instances of the tile are
+ * attracted by them. The attribute differences of each pair of instances
+ * are computed once per tile and multiplied by the weight rows of all the
+ * individuals of the tile.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCEvaluationEngine implements Serializable
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	private static final long serialVersionUID = -2034711957327482460L;
+	
+	/** Number of instances classified by each tile */
+	
+	private static final int QUERY_BLOCK = 64;
+	
+	/** Maximum number of individuals evaluated by each tile */
+	
+	private static final int INDIVIDUAL_BLOCK = 16;
+	
+	/** Number of rows whose attribute differences are shared at once */
+	
+	private static final int PAIR_BLOCK = 256;
+	
+	/** Number of packed values read by each row block (128 KB) */
+	
+	private static final int ROW_BLOCK_VALUES = 1 << 14;
+	
+	/** Gravity species */
+	
+	protected DGCSpecies species;
+	
+	/** Species whose rows attract the train instances, the gravity species or a sample of it */
+	
+	protected DGCSpecies attractors;
+	
+	/** Number of rows of each row block */
+	
+	private int rowBlock;
+	
+	/** Evaluate in single precision */
+	
+	private boolean singlePrecision;
+	
+	/** Distance kernel */
+	
+	protected static final DGCDistanceKernel kernel = DGCDistanceKernel.getInstance();
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	public DGCEvaluationEngine(DGCSpecies species)
+	{
+		this(species, species);
+	}
+	
+	/**
+	 * Creates an engine whose train instances are attracted by a sample of the train set
+	 * @param species gravity species
+	 * @param attractors sample of the gravity species
+	 */
+	public DGCEvaluationEngine(DGCSpecies species, DGCSpecies attractors)
+	{
+		super();
+		
+		this.species = species;
+		this.attractors = attractors;
+		this.rowBlock = Math.max(QUERY_BLOCK, ROW_BLOCK_VALUES / Math.max(1, species.attributesNumber));
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Classifies the train set with every individual of a population
+	 * @param pop population of weight matrices
+	 * @param executor evaluation executor
+	 * @return the confusion matrix of each individual
+	 */
+	public int[][][] evaluate(double[][] pop, ForkJoinPool executor)
+	{
+		return evaluate(pop, null, 0, species.getNumberRows(), executor);
+	}
+	
+	/**
+	 * Classifies a subset of the train set with every individual of a population
+	 * @param pop population of weight matrices
+	 * @param order order of the packed rows, null for the packed order
+	 * @param from first position of the subset in the order
+	 * @param to last position of the subset in the order (exclusive)
+	 * @param executor evaluation executor
+	 * @return the confusion matrix of each individual on the subset
+	 */
+	public int[][][] evaluate(double[][] pop, int[] order, int from, int to, ForkJoinPool executor)
+	{
+		DGCFitnessAccumulator[] accumulators = new DGCErrorRateAccumulator().newAccumulators(pop.length, species.classesNumber);
+		
+		evaluate(pop, order, from, to, accumulators, executor);
+		
+		int[][][] confusionMatrices = new int[pop.length][][];
+		
+		for(int k = 0; k < pop.length; k++)
+			confusionMatrices[k] = accumulators[k].getConfusionMatrix();
+		
+		return confusionMatrices;
+	}
+	
+	/**
+	 * Classifies the train set with every individual of a population, streaming
+	 * each prediction into the fitness accumulator of the individual
+	 * @param pop population of weight matrices
+	 * @param accumulators fitness accumulator of each individual
+	 * @param executor evaluation executor
+	 */
+	public void evaluate(double[][] pop, DGCFitnessAccumulator[] accumulators, ForkJoinPool executor)
+	{
+		evaluate(pop, null, 0, species.getNumberRows(), accumulators, executor);
+	}
+	
+	/**
+	 * Classifies a subset of the train set with every individual of a
+	 * population, streaming each prediction into the fitness accumulator of
+	 * the individual
+	 * @param pop population of weight matrices
+	 * @param order order of the packed rows, null for the packed order
+	 * @param from first position of the subset in the order
+	 * @param to last position of the subset in the order (exclusive)
+	 * @param accumulators fitness accumulator of each individual
+	 * @param executor evaluation executor
+	 */
+	public void evaluate(double[][] pop, int[] order, int from, int to, DGCFitnessAccumulator[] accumulators, ForkJoinPool executor)
+	{
+		executor.invoke(new evaluationTask(pop, order, accumulators, null, singlePrecision, 0, pop.length, from, to));
+	}
+	
+	/**
+	 * Classifies the train set with every individual of a population both in
+	 * double and single precision and compares the predicted classes
+	 * @param pop population of weight matrices
+	 * @param executor evaluation executor
+	 * @return the fraction of predictions that differ between both precisions
+	 */
+	public double disagreement(double[][] pop, ForkJoinPool executor)
+	{
+		int numberRows = species.getNumberRows();
+		int numberClasses = species.classesNumber;
+		
+		int[][] doublePredictions = new int[pop.length][numberRows];
+		int[][] singlePredictions = new int[pop.length][numberRows];
+		
+		DGCFitnessAccumulator[] counts = new DGCErrorRateAccumulator().newAccumulators(pop.length, numberClasses);
+		
+		executor.invoke(new evaluationTask(pop, null, counts, doublePredictions, false, 0, pop.length, 0, numberRows));
+		executor.invoke(new evaluationTask(pop, null, counts, singlePredictions, true, 0, pop.length, 0, numberRows));
+		
+		int disagreements = 0;
+		
+		for(int k = 0; k < pop.length; k++)
+			for(int j = 0; j < numberRows; j++)
+				if(doublePredictions[k][j] != singlePredictions[k][j])
+					disagreements++;
+		
+		return pop.length == 0 || numberRows == 0 ? 0.0 : disagreements / ((double) pop.length * numberRows);
+	}
+	
+	/**
+	 * @return true if the population is evaluated in single precision
+	 */
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+	
+	/**
+	 * Sets the evaluation precision. In single precision the data, the weights and
+	 * the distances are floats, and the gravitation is summed with compensation.
+	 * @param singlePrecision evaluate in single precision
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ---------------------------------------------- Private methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Classifies a block of train rows with a block of individuals, excluding
+	 * each row from its own gravitation
+	 * @param pop population of weight matrices
+	 * @param order order of the packed rows, null for the packed order
+	 * @param individualFrom first individual
+	 * @param individualTo last individual (exclusive)
+	 * @param from first position of the block in the order
+	 * @param to last position of the block in the order (exclusive)
+	 * @param counts fitness accumulator of each individual
+	 * @param predictions predicted class of each individual and row, null if not required
+	 */
+	private void evaluate(double[][] pop, int[] order, int individualFrom, int individualTo, int from, int to, DGCFitnessAccumulator[] counts, int[][] predictions)
+	{
+		double[] data = attractors.getData();
+		double[] queryData = species.getData();
+		int[] classes = species.getClasses();
+		int[] classOffsets = attractors.getClassOffsets();
+		int[] numericalAttributes = species.getNumericalAttributes();
+		int[] categoricalAttributes = species.getCategoricalAttributes();
+		int numberRows = attractors.getNumberRows();
+		int numberInstances = species.getNumberRows();
+		int numberClasses = species.classesNumber;
+		int numAttributes = species.attributesNumber;
+		int numberIndividuals = individualTo - individualFrom;
+		int numberQueries = to - from;
+		
+		// Packed rows of the block instances
+		int[] queryRows = new int[numberQueries];
+		
+		for(int q = 0; q < numberQueries; q++)
+			queryRows[q] = order != null ? order[from + q] : from + q;
+		
+		// Attribute values of the block instances
+		double[] queries = new double[numberQueries * numAttributes];
+		
+		for(int q = 0; q < numberQueries; q++)
+			for(int i = 0; i < numAttributes; i++)
+				queries[q * numAttributes + i] = queryData[i * numberInstances + queryRows[q]];
+		
+		// Gravitation of each individual, instance and class
+		double[] gravities = new double[numberIndividuals * numberQueries * numberClasses];
+		boolean[] saturated = new boolean[numberIndividuals * numberQueries * numberClasses];
+		
+		double[] terms = new double[PAIR_BLOCK];
+		double[] distances = new double[numberIndividuals * PAIR_BLOCK];
+		
+		// Cached terms of the pairs, attribute-major
+		DGCPairCache cache = attractors.getPairCache();
+		float[] cachedTerms = cache != null ? new float[numAttributes * PAIR_BLOCK] : null;
+		
+		for(int block = 0; block < numberRows; block += rowBlock)
+		{
+			int blockEnd = Math.min(numberRows, block + rowBlock);
+			
+			for(int q = 0; q < numberQueries; q++)
+			{
+				int self = attractors.getSampledRow(queryRows[q]);
+				
+				for(int c = 0; c < numberClasses; c++)
+				{
+					int classEnd = Math.min(blockEnd, classOffsets[c+1]);
+					
+					for(int begin = Math.max(block, classOffsets[c]); begin < classEnd; begin += PAIR_BLOCK)
+					{
+						int length = Math.min(PAIR_BLOCK, classEnd - begin);
+						
+						Arrays.fill(distances, 0.0);
+						
+						if(cache != null)
+						{
+							cache.terms(self, begin, length, cachedTerms, PAIR_BLOCK);
+							
+							for(int i = 0; i < numAttributes; i++)
+								for(int k = 0; k < numberIndividuals; k++)
+									kernel.accumulate(distances, k * PAIR_BLOCK, pop[individualFrom + k][c * numAttributes + i], cachedTerms, i * PAIR_BLOCK, length);
+						}
+						else
+						{
+							// Attribute difference terms, shared by all the individuals
+							for(int i : numericalAttributes)
+							{
+								kernel.numericalTerms(data, i * numberRows + begin, queries[q * numAttributes + i], terms, length);
+								
+								for(int k = 0; k < numberIndividuals; k++)
+									kernel.accumulate(distances, k * PAIR_BLOCK, pop[individualFrom + k][c * numAttributes + i], terms, 0, length);
+							}
+							
+							for(int i : categoricalAttributes)
+							{
+								kernel.categoricalTerms(data, i * numberRows + begin, queries[q * numAttributes + i], terms, length);
+								
+								for(int k = 0; k < numberIndividuals; k++)
+									kernel.accumulate(distances, k * PAIR_BLOCK, pop[individualFrom + k][c * numAttributes + i], terms, 0, length);
+							}
+						}
+						
+						// The query row, if it belongs to the chunk, splits it in two ranges
+						int split = self >= begin && self < begin + length ? self - begin : length;
+						
+						for(int k = 0; k < numberIndividuals; k++)
+						{
+							int index = (k * numberQueries + q) * numberClasses + c;
+							
+							if(saturated[index])
+								continue;
+							
+							int base = k * PAIR_BLOCK;
+							double gravity = gravities[index];
+							
+							ranges:
+							for(int first = 0, last = split; first < length; first = last + 1, last = length)
+								for(int j = first; j < last; j++)
+								{
+									if(distances[base + j] == 0)
+									{
+										saturated[index] = true;
+										break ranges;
+									}
+									
+									gravity += 1.0 / distances[base + j];
+								}
+							
+							gravities[index] = gravity;
+						}
+					}
+				}
+			}
+		}
+		
+		// Predict the class with the highest gravitation
+		for(int k = 0; k < numberIndividuals; k++)
+			for(int q = 0; q < numberQueries; q++)
+			{
+				double maxGravity = -1;
+				int maxGravityClass = 0;
+				
+				for(int c = 0; c < numberClasses; c++)
+				{
+					int index = (k * numberQueries + q) * numberClasses + c;
+					
+					double gravity = saturated[index] ? Double.MAX_VALUE : gravities[index];
+					
+					gravity *= 1.0 - ((species.getNumberInstances()[c]-1) / (double) numberInstances);
+					
+					if(gravity > maxGravity)
+					{
+						maxGravity = gravity;
+						maxGravityClass = c;
+					}
+				}
+				
+				counts[individualFrom + k].add(classes[queryRows[q]], maxGravityClass);
+				
+				if(predictions != null)
+					predictions[individualFrom + k][queryRows[q]] = maxGravityClass;
+			}
+	}
+	
+	/**
+	 * Classifies a block of train rows with a block of individuals in single
+	 * precision, excluding each row from its own gravitation. The gravitation
+	 * is accumulated with Kahan summation to bound the rounding error of the
+	 * float sum over a class block.
+	 * @param pop population of weight matrices
+	 * @param order order of the packed rows, null for the packed order
+	 * @param individualFrom first individual
+	 * @param individualTo last individual (exclusive)
+	 * @param from first position of the block in the order
+	 * @param to last position of the block in the order (exclusive)
+	 * @param counts fitness accumulator of each individual
+	 * @param predictions predicted class of each individual and row, null if not required
+	 */
+	private void evaluateSingle(double[][] pop, int[] order, int individualFrom, int individualTo, int from, int to, DGCFitnessAccumulator[] counts, int[][] predictions)
+	{
+		float[] data = attractors.getFloatData();
+		float[] queryData = species.getFloatData();
+		int[] classes = species.getClasses();
+		int[] classOffsets = attractors.getClassOffsets();
+		int[] numericalAttributes = species.getNumericalAttributes();
+		int[] categoricalAttributes = species.getCategoricalAttributes();
+		int numberRows = attractors.getNumberRows();
+		int numberInstances = species.getNumberRows();
+		int numberClasses = species.classesNumber;
+		int numAttributes = species.attributesNumber;
+		int numberIndividuals = individualTo - individualFrom;
+		int numberQueries = to - from;
+		
+		// Packed rows of the block instances
+		int[] queryRows = new int[numberQueries];
+		
+		for(int q = 0; q < numberQueries; q++)
+			queryRows[q] = order != null ? order[from + q] : from + q;
+		
+		// Attribute values of the block instances
+		float[] queries = new float[numberQueries * numAttributes];
+		
+		for(int q = 0; q < numberQueries; q++)
+			for(int i = 0; i < numAttributes; i++)
+				queries[q * numAttributes + i] = queryData[i * numberInstances + queryRows[q]];
+		
+		// Weights of the block individuals
+		int numberWeights = numberClasses * numAttributes;
+		float[] weights = new float[numberIndividuals * numberWeights];
+		
+		for(int k = 0; k < numberIndividuals; k++)
+			for(int i = 0; i < numberWeights; i++)
+				weights[k * numberWeights + i] = (float) pop[individualFrom + k][i];
+		
+		// Gravitation of each individual, instance and class, and its compensation
+		float[] gravities = new float[numberIndividuals * numberQueries * numberClasses];
+		float[] compensations = new float[numberIndividuals * numberQueries * numberClasses];
+		boolean[] saturated = new boolean[numberIndividuals * numberQueries * numberClasses];
+		
+		float[] terms = new float[PAIR_BLOCK];
+		float[] distances = new float[numberIndividuals * PAIR_BLOCK];
+		
+		// Cached terms of the pairs, attribute-major
+		DGCPairCache cache = attractors.getPairCache();
+		float[] cachedTerms = cache != null ? new float[numAttributes * PAIR_BLOCK] : null;
+		
+		for(int block = 0; block < numberRows; block += rowBlock)
+		{
+			int blockEnd = Math.min(numberRows, block + rowBlock);
+			
+			for(int q = 0; q < numberQueries; q++)
+			{
+				int self = attractors.getSampledRow(queryRows[q]);
+				
+				for(int c = 0; c < numberClasses; c++)
+				{
+					int classEnd = Math.min(blockEnd, classOffsets[c+1]);
+					
+					for(int begin = Math.max(block, classOffsets[c]); begin < classEnd; begin += PAIR_BLOCK)
+					{
+						int length = Math.min(PAIR_BLOCK, classEnd - begin);
+						
+						Arrays.fill(distances, 0.0f);
+						
+						if(cache != null)
+						{
+							cache.terms(self, begin, length, cachedTerms, PAIR_BLOCK);
+							
+							for(int i = 0; i < numAttributes; i++)
+								for(int k = 0; k < numberIndividuals; k++)
+									kernel.accumulate(distances, k * PAIR_BLOCK, weights[k * numberWeights + c * numAttributes + i], cachedTerms, i * PAIR_BLOCK, length);
+						}
+						else
+						{
+							// Attribute difference terms, shared by all the individuals
+							for(int i : numericalAttributes)
+							{
+								kernel.numericalTerms(data, i * numberRows + begin, queries[q * numAttributes + i], terms, length);
+								
+								for(int k = 0; k < numberIndividuals; k++)
+									kernel.accumulate(distances, k * PAIR_BLOCK, weights[k * numberWeights + c * numAttributes + i], terms, 0, length);
+							}
+							
+							for(int i : categoricalAttributes)
+							{
+								kernel.categoricalTerms(data, i * numberRows + begin, queries[q * numAttributes + i], terms, length);
+								
+								for(int k = 0; k < numberIndividuals; k++)
+									kernel.accumulate(distances, k * PAIR_BLOCK, weights[k * numberWeights + c * numAttributes + i], terms, 0, length);
+							}
+						}
+						
+						// The query row, if it belongs to the chunk, splits it in two ranges
+						int split = self >= begin && self < begin + length ? self - begin : length;
+						
+						for(int k = 0; k < numberIndividuals; k++)
+						{
+							int index = (k * numberQueries + q) * numberClasses + c;
+							
+							if(saturated[index])
+								continue;
+							
+							int base = k * PAIR_BLOCK;
+							float gravity = gravities[index];
+							float compensation = compensations[index];
+							
+							ranges:
+							for(int first = 0, last = split; first < length; first = last + 1, last = length)
+								for(int j = first; j < last; j++)
+								{
+									if(distances[base + j] == 0)
+									{
+										saturated[index] = true;
+										break ranges;
+									}
+									
+									float y = 1.0f / distances[base + j] - compensation;
+									float t = gravity + y;
+									compensation = (t - gravity) - y;
+									gravity = t;
+								}
+							
+							gravities[index] = gravity;
+							compensations[index] = compensation;
+						}
+					}
+				}
+			}
+		}
+		
+		// Predict the class with the highest gravitation
+		for(int k = 0; k < numberIndividuals; k++)
+			for(int q = 0; q < numberQueries; q++)
+			{
+				float maxGravity = -1;
+				int maxGravityClass = 0;
+				
+				for(int c = 0; c < numberClasses; c++)
+				{
+					int index = (k * numberQueries + q) * numberClasses + c;
+					
+					float gravity = saturated[index] ? Float.MAX_VALUE : gravities[index];
+					
+					gravity *= 1.0f - ((species.getNumberInstances()[c]-1) / (float) numberInstances);
+					
+					if(gravity > maxGravity)
+					{
+						maxGravity = gravity;
+						maxGravityClass = c;
+					}
+				}
+				
+				counts[individualFrom + k].add(classes[queryRows[q]], maxGravityClass);
+				
+				if(predictions != null)
+					predictions[individualFrom + k][queryRows[q]] = maxGravityClass;
+			}
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------ Private tasks
+	/////////////////////////////////////////////////////////////////
+	
+	private class evaluationTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private double[][] pop;
+		private int[] order;
+		private DGCFitnessAccumulator[] counts;
+		private int[][] predictions;
+		private boolean singlePrecision;
+		private int individualFrom, individualTo;
+		private int rowFrom, rowTo;
+		
+		public evaluationTask(double[][] pop, int[] order, DGCFitnessAccumulator[] counts, int[][] predictions, boolean singlePrecision, int individualFrom, int individualTo, int rowFrom, int rowTo)
+		{
+			this.pop = pop;
+			this.order = order;
+			this.counts = counts;
+			this.predictions = predictions;
+			this.singlePrecision = singlePrecision;
+			this.individualFrom = individualFrom;
+			this.individualTo = individualTo;
+			this.rowFrom = rowFrom;
+			this.rowTo = rowTo;
+		}
+		
+		protected void compute()
+		{
+			if(individualTo - individualFrom > INDIVIDUAL_BLOCK)
+			{
+				int middle = (individualFrom + individualTo) >>> 1;
+				invokeAll(new evaluationTask(pop, order, counts, predictions, singlePrecision, individualFrom, middle, rowFrom, rowTo),
+						  new evaluationTask(pop, order, counts, predictions, singlePrecision, middle, individualTo, rowFrom, rowTo));
+			}
+			else if(rowTo - rowFrom > QUERY_BLOCK)
+			{
+				int middle = (rowFrom + rowTo) >>> 1;
+				invokeAll(new evaluationTask(pop, order, counts, predictions, singlePrecision, individualFrom, individualTo, rowFrom, middle),
+						  new evaluationTask(pop, order, counts, predictions, singlePrecision, individualFrom, individualTo, middle, rowTo));
+			}
+			else if(individualTo > individualFrom && rowTo > rowFrom)
+			{
+				if(singlePrecision)
+					evaluateSingle(pop, order, individualFrom, individualTo, rowFrom, rowTo, counts, predictions);
+				else
+					evaluate(pop, order, individualFrom, individualTo, rowFrom, rowTo, counts, predictions);
+			}
+		}
+	}
+}
@@ -1,18 +1,15 @@
 package net.sf.jclec.problem.classification.dgc;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 import net.sf.jclec.IEvaluator;
 import net.sf.jclec.IFitness;
 import net.sf.jclec.IIndividual;
 import net.sf.jclec.base.AbstractEvaluator;
-import net.sf.jclec.problem.classification.classic.ClassicInstance;
-import net.sf.jclec.problem.util.dataset.IExample;
 
 import cma.CMASolution;
 
@@ -40,6 +37,58 @@ public class DGCEvaluator extends AbstractEvaluator implements IEvaluator
 	
 	protected double[] fitness;
 	
+	/** Evaluation executor */
+	
+	protected transient ForkJoinPool executor;
+	
+	/** Evaluation engine */
+	
+	protected DGCEvaluationEngine engine;
+	
+	/** Fitness accumulator prototype, defines the fitness metric */
+	
+	protected DGCFitnessAccumulator accumulator = new DGCErrorRateAccumulator();
+	
+	/** Number of parents of each generation when racing, 0 disables racing */
+	
+	protected int racingParents;
+	
+	/** Fixed shuffled order of the train rows used when racing */
+	
+	protected int[] racingOrder;
+	
+	/** Number of racing rounds over the train set */
+	
+	private static final int RACING_ROUNDS = 16;
+	
+	/** Minimum number of instances of each racing round */
+	
+	private static final int RACING_ROUND_SIZE = 256;
+	
+	/** Seed of the racing order */
+	
+	private static final long RACING_SEED = 123456789L;
+	
+	/** Number of train instances classified in each generation, 0 classifies the whole train set */
+	
+	protected int miniBatchSize;
+	
+	/** Fraction of the train instances of each class that attract the mini-batch */
+	
+	protected double miniBatchAttractors = 1.0;
+	
+	/** Shuffled order of the train rows, its first positions are the mini-batch */
+	
+	protected int[] miniBatchOrder;
+	
+	/** Random generator of the mini-batches */
+	
+	protected Random miniBatchRandom;
+	
+	/** Seed of the mini-batches */
+	
+	private static final long MINI_BATCH_SEED = 987654321L;
+	
 	/////////////////////////////////////////////////////////////////
 	// ------------------------------------------------- Constructors
 	/////////////////////////////////////////////////////////////////
@@ -56,6 +105,45 @@ public class DGCEvaluator extends AbstractEvaluator implements IEvaluator
 	public void setSpecies(DGCSpecies species)
 	{
 		this.species = species;
+		this.engine = species.getSpatialIndex() != null ? new DGCSpatialEvaluationEngine(species) : new DGCEvaluationEngine(species);
+		this.racingOrder = null;
+		this.miniBatchOrder = null;
+		this.miniBatchRandom = new Random(MINI_BATCH_SEED);
+	}
+	
+	/**
+	 * Sets the executor shared with the classifiers
+	 * @param executor evaluation executor
+	 */
+	public void setExecutor(ForkJoinPool executor)
+	{
+		this.executor = executor;
+	}
+	
+	/**
+	 * @return the evaluation executor, the common pool if none was set
+	 */
+	public ForkJoinPool getExecutor()
+	{
+		return executor != null ? executor : ForkJoinPool.commonPool();
+	}
+	
+	/**
+	 * @return the fitness accumulator prototype
+	 */
+	public DGCFitnessAccumulator getFitnessAccumulator()
+	{
+		return accumulator;
+	}
+	
+	/**
+	 * Sets the fitness metric, the evaluation kernel streams the predictions of
+	 * each individual into an empty accumulator of the same metric
+	 * @param accumulator fitness accumulator prototype
+	 */
+	public void setFitnessAccumulator(DGCFitnessAccumulator accumulator)
+	{
+		this.accumulator = accumulator;
 	}
 
 	/////////////////////////////////////////////////////////////////
@@ -63,7 +151,7 @@ public class DGCEvaluator extends AbstractEvaluator implements IEvaluator
 	/////////////////////////////////////////////////////////////////
 	
 	/**
-	 * Computes the fitness values of the population in parallel using as many threads as CPU cores
+	 * Computes the fitness values of the population in parallel using the evaluation executor
 	 * @param pop population of real array individuals
 	 * @return real array with the fitness values
 	 */
@@ -73,28 +161,37 @@ public class DGCEvaluator extends AbstractEvaluator implements IEvaluator
 		
         fitness = new double[pop.length];
         
-        ExecutorService threadExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-		
-		for(int i = 0; i < pop.length; i++)
-			threadExecutor.execute(new evaluationThread(i, pop[i]));
-		
-		threadExecutor.shutdown();
-		
-		try
-		{
-			if (!threadExecutor.awaitTermination(30, TimeUnit.DAYS))
-				System.out.println("Threadpool timeout occurred");
-		}
-		catch (InterruptedException ie)
-		{
-			System.out.println("Threadpool prematurely terminated due to interruption in thread that created pool");
-		}
+        if(miniBatchSize > 0 && miniBatchSize < species.getNumberRows())
+        	miniBatch(pop);
+        else if(racingParents > 0 && racingParents < pop.length && isRacingSupported())
+        	race(pop);
+        else
+        	evaluate(pop);
         
 		evaluationTime += System.currentTimeMillis() - time;
 		
         return fitness;
     }
 	
+	/**
+	 * Computes the fitness values of the population on the whole train set,
+	 * without mini-batches or racing
+	 * @param pop population of real array individuals
+	 * @return real array with the fitness values
+	 */
+	public double [] fullValuesOf(double[][] pop)
+	{
+		long time = System.currentTimeMillis();
+		
+		fitness = new double[pop.length];
+		
+		evaluate(pop);
+		
+		evaluationTime += System.currentTimeMillis() - time;
+		
+		return fitness;
+	}
+	
 	/**
 	 * Computes the fitness value of an individual
 	 * @param x weight values
@@ -102,24 +199,258 @@ public class DGCEvaluator extends AbstractEvaluator implements IEvaluator
 	 */
 	public double valueOf(double[] x)
 	{
-		GravitationClassifier classifier = new GravitationClassifier(species);
+		DGCFitnessAccumulator[] accumulators = accumulator.newAccumulators(1, species.classesNumber);
 		
-		classifier.setWeights(x);
+		engine.evaluate(new double[][] {x}, accumulators, getExecutor());
 		
-		double [] predicted = classifier.classify(species.getDataset());
+		return accumulators[0].value();
+	}
+	
+	/**
+	 * Sets the evaluation precision
+	 * @param singlePrecision evaluate the population in single precision
+	 */
+	public void setSinglePrecision(boolean singlePrecision)
+	{
+		engine.setSinglePrecision(singlePrecision);
+	}
+	
+	/**
+	 * Selects the engine that visits each pair of train instances once. The
+	 * spatial index of the species, if any, is used otherwise.
+	 * @param symmetric use the symmetric evaluation engine
+	 * @throws IllegalArgumentException if symmetric and the species has a
+	 * spatial index, the symmetric engine would ignore it
+	 */
+	public void setSymmetric(boolean symmetric)
+	{
+		boolean singlePrecision = engine.isSinglePrecision();
 		
-		ArrayList<IExample> instances = species.getDataset().getExamples();
+		if(symmetric && species.getSpatialIndex() != null)
+			throw new IllegalArgumentException("The symmetric evaluation and the spatial index cannot be used together");
 		
-		int fails = 0;
+		if(symmetric)
+			engine = new DGCSymmetricEvaluationEngine(species);
+		else
+			engine = species.getSpatialIndex() != null ? new DGCSpatialEvaluationEngine(species) : new DGCEvaluationEngine(species);
 		
-		for(int i = 0; i < instances.size(); i++)
+		engine.setSinglePrecision(singlePrecision);
+	}
+	
+	/**
+	 * Enables racing: the train instances are classified in rounds following a
+	 * fixed shuffled order, and an individual stops being evaluated as soon as
+	 * its errors make it worse than the parents-th best individual of the
+	 * population whatever the remaining predictions are
+	 * @param parents number of parents of each generation, 0 disables racing
+	 */
+	public void setRacing(int parents)
+	{
+		this.racingParents = parents;
+	}
+	
+	/**
+	 * Enables mini-batch evaluation: in each generation the whole population
+	 * is scored on the same random subset of the train instances, attracted by
+	 * the whole train set or by a stratified sample of it
+	 * @param size number of train instances classified, 0 classifies the whole train set
+	 * @param attractors fraction of the train instances of each class that attract them,
+	 * below 1 the batches are evaluated by the tiled engine, see miniBatch
+	 */
+	public void setMiniBatch(int size, double attractors)
+	{
+		this.miniBatchSize = size;
+		this.miniBatchAttractors = attractors;
+	}
+	
+	/**
+	 * Reports how often the single and double precision evaluations predict a
+	 * different class for the train instances
+	 * @param pop population of weight matrices
+	 * @return the fraction of predictions that differ
+	 */
+	public double precisionDisagreement(double[][] pop)
+	{
+		return engine.disagreement(pop, getExecutor());
+	}
+	
+	/**
+	 * Evaluates the population on the whole train set
+	 * @param pop population of weight matrices
+	 */
+	protected void evaluate(double[][] pop)
+	{
+		DGCFitnessAccumulator[] accumulators = accumulator.newAccumulators(pop.length, species.classesNumber);
+		
+		engine.evaluate(pop, accumulators, getExecutor());
+		
+		for(int i = 0; i < pop.length; i++)
+			fitness[i] = accumulators[i].value();
+	}
+	
+	/**
+	 * Evaluates the population on a new mini-batch of the train set. The
+	 * mini-batch is drawn by a partial shuffle of the train rows, and the
+	 * attractors are sampled again when they are not the whole train set.
+	 * The prior of each class is still taken from the whole train set.
+	 * A sample of attractors is evaluated by the tiled engine whatever the
+	 * selected engine: the symmetric schedule needs the same instances on both
+	 * sides, and the spatial index and the pair cache cover the whole train set.
+	 * @param pop population of weight matrices
+	 */
+	protected void miniBatch(double[][] pop)
+	{
+		int numberRows = species.getNumberRows();
+		
+		if(miniBatchOrder == null)
 		{
-			if(((ClassicInstance) instances.get(i)).getClassValue() != predicted[i])
-				fails++;				
+			miniBatchOrder = new int[numberRows];
+			
+			for(int i = 0; i < numberRows; i++)
+				miniBatchOrder[i] = i;
 		}
 		
-		// Compute the error rate
-		return fails / (double) instances.size();
+		for(int i = 0; i < miniBatchSize; i++)
+		{
+			int j = i + miniBatchRandom.nextInt(numberRows - i);
+			int swap = miniBatchOrder[i];
+			miniBatchOrder[i] = miniBatchOrder[j];
+			miniBatchOrder[j] = swap;
+		}
+		
+		DGCEvaluationEngine batchEngine = engine;
+		
+		if(miniBatchAttractors < 1.0)
+		{
+			batchEngine = new DGCEvaluationEngine(species, species.sample(miniBatchAttractors, miniBatchRandom));
+			batchEngine.setSinglePrecision(engine.isSinglePrecision());
+		}
+		
+		int[][][] confusionMatrices = batchEngine.evaluate(pop, miniBatchOrder, 0, miniBatchSize, getExecutor());
+		
+		for(int i = 0; i < pop.length; i++)
+			fitness[i] = valueOf(confusionMatrices[i]);
+	}
+	
+	/**
+	 * Evaluates the population racing the individuals on a fixed shuffled order
+	 * of the train set. After each round, the upper bound of the errors of an
+	 * individual assumes that every remaining instance fails and its lower bound
+	 * that none fails. Individuals whose lower bound exceeds the parents-th
+	 * smallest upper bound cannot be parents and are no longer evaluated; their
+	 * fitness is the error rate on the instances classified so far, which lies
+	 * between both bounds and keeps them ranked behind the parents.
+	 * @param pop population of weight matrices
+	 */
+	protected void race(double[][] pop)
+	{
+		int numberRows = species.getNumberRows();
+		int numberClasses = species.classesNumber;
+		int roundSize = Math.max(RACING_ROUND_SIZE, (numberRows + RACING_ROUNDS - 1) / RACING_ROUNDS);
+		
+		int[][][] confusionMatrices = new int[pop.length][numberClasses][numberClasses];
+		int[] fails = new int[pop.length];
+		boolean[] pruned = new boolean[pop.length];
+		int[] alive = new int[pop.length];
+		
+		for(int from = 0; from < numberRows; from += roundSize)
+		{
+			int to = Math.min(numberRows, from + roundSize);
+			
+			// Individuals still in the race
+			int numberAlive = 0;
+			
+			for(int k = 0; k < pop.length; k++)
+				if(!pruned[k])
+					alive[numberAlive++] = k;
+			
+			double[][] alivePop = new double[numberAlive][];
+			
+			for(int k = 0; k < numberAlive; k++)
+				alivePop[k] = pop[alive[k]];
+			
+			int[][][] round = engine.evaluate(alivePop, getRacingOrder(), from, to, getExecutor());
+			
+			for(int k = 0; k < numberAlive; k++)
+				for(int i = 0; i < numberClasses; i++)
+					for(int j = 0; j < numberClasses; j++)
+					{
+						confusionMatrices[alive[k]][i][j] += round[k][i][j];
+						
+						if(i != j)
+							fails[alive[k]] += round[k][i][j];
+					}
+			
+			if(to == numberRows)
+				break;
+			
+			// Parents-th smallest upper bound of the errors
+			int[] upperBounds = new int[numberAlive];
+			
+			for(int k = 0; k < numberAlive; k++)
+				upperBounds[k] = fails[alive[k]] + numberRows - to;
+			
+			Arrays.sort(upperBounds);
+			
+			int threshold = upperBounds[racingParents - 1];
+			
+			for(int k = 0; k < numberAlive; k++)
+				if(fails[alive[k]] > threshold)
+				{
+					pruned[alive[k]] = true;
+					fitness[alive[k]] = fails[alive[k]] / (double) to;
+				}
+		}
+		
+		for(int k = 0; k < pop.length; k++)
+			if(!pruned[k])
+				fitness[k] = valueOf(confusionMatrices[k]);
+	}
+	
+	/**
+	 * Racing bounds are derived from the number of fails, so racing requires
+	 * the fitness to be the error rate
+	 * @return true if the population can be raced
+	 */
+	protected boolean isRacingSupported()
+	{
+		return accumulator instanceof DGCErrorRateAccumulator;
+	}
+	
+	/**
+	 * @return the fixed shuffled order of the packed train rows
+	 */
+	protected int[] getRacingOrder()
+	{
+		if(racingOrder == null)
+		{
+			Random random = new Random(RACING_SEED);
+			
+			racingOrder = new int[species.getNumberRows()];
+			
+			for(int i = 0; i < racingOrder.length; i++)
+				racingOrder[i] = i;
+			
+			for(int i = racingOrder.length - 1; i > 0; i--)
+			{
+				int j = random.nextInt(i + 1);
+				int swap = racingOrder[i];
+				racingOrder[i] = racingOrder[j];
+				racingOrder[j] = swap;
+			}
+		}
+		
+		return racingOrder;
+	}
+	
+	/**
+	 * Computes the fitness value from the train confusion matrix of an individual
+	 * @param confusionMatrix the confusion matrix
+	 * @return the fitness of the accumulator metric
+	 */
+	protected double valueOf(int[][] confusionMatrix)
+	{
+		return accumulator.valueOf(confusionMatrix);
 	}
 	
 	/**
@@ -205,23 +536,6 @@ public class DGCEvaluator extends AbstractEvaluator implements IEvaluator
 		return bestSolution;
 	}
 	
-	private class evaluationThread extends Thread
-	{
-		private int index;
-		private double[] ind;
-		
-	    public evaluationThread(int index, double[] ind)
-	    {
-	    	this.index = index;
-	        this.ind = ind;
-	    }
-	    
-	    public void run()
-	    {
-	    	fitness[index] = valueOf(ind);
-	    }
-    }
-
 	@Override
 	public Comparator<IFitness> getComparator() {
 		return null;
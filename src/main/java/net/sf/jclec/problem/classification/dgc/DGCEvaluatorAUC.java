@@ -26,23 +26,19 @@ public class DGCEvaluatorAUC extends DGCEvaluator
 	}
 
 	/////////////////////////////////////////////////////////////////
-	// ------------------------ Overwriting AbstractEvaluator methods
+	// ----------------------------------------------- Public methods
 	/////////////////////////////////////////////////////////////////
 	
 	/**
-	 * Computes the fitness of an individual
-	 * @param x weight values
-	 * @return 1.0 - AUC
+	 * Sets the species, the fitness is 1.0 - AUC on two classes and 1.0 -
+	 * macro-averaged AUC on more
+	 * @param species the species
 	 */
-	public double valueOf(double[] x)
+	@Override
+	public void setSpecies(DGCSpecies species)
 	{
-		GravitationClassifier classifier = new GravitationClassifier(species);
+		super.setSpecies(species);
 		
-		classifier.setWeights(x);
-		
-		int[][] confusionMatrix = classifier.getConfusionMatrix(species.getDataset());
-
-		// Compute the Area Under the Curve (AUC)
-        return 1.0 - (1.0 + (confusionMatrix[0][0] / (double)  (confusionMatrix[0][0]+confusionMatrix[0][1])) - (confusionMatrix[1][0] / (double) (confusionMatrix[1][1]+confusionMatrix[1][0])))/2.0;
+		accumulator = DGCFitnessMetrics.auc(species.classesNumber);
 	}
 }
\ No newline at end of file
@@ -1,27 +1,51 @@
 package net.sf.jclec.problem.classification.dgc;
 
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 
 import net.sf.jclec.problem.classification.classic.ClassicClassificationMetadata;
-import net.sf.jclec.problem.classification.classic.ClassicInstance;
-import net.sf.jclec.problem.util.dataset.IExample;
 
-public class DGCEvaluatorGPU extends DGCEvaluator
+public class DGCEvaluatorGPU extends DGCEvaluator implements AutoCloseable
 {
-	/** Native functions */
-	public native void nativeMalloc(int popSize, int numThreads, int numberAttributes, int numberInstances, int numberClasses, DGCEvaluatorGPU object);
-	public native void nativeEvaluate(int popSize, DGCEvaluatorGPU object);
-	public native void nativeFree();
-	
 	protected DGCAlgorithmGPU algorithm;
 	
-	/** Individuals list to evaluate */
+	/** Evaluation backend, the data is exchanged through direct buffers in native byte order */
+	
+	protected transient DGCEvaluationBackend backend;
+	
+	/** Packed train data */
+	
+	protected double[] data;
+	
+	/** Class label of each packed row */
+	
+	protected int[] classes;
+	
+	/** Packed train data in single precision, by columns */
+	
+	protected ByteBuffer instancesBuffer;
+	
+	/** Class label of each packed row */
 	
-	protected double[][] population;
+	protected ByteBuffer classesBuffer;
 	
-	/** Instances */
+	/** Number of instances of each class */
 	
-	protected ArrayList<IExample> instances;
+	protected ByteBuffer numberInstancesClassBuffer;
+	
+	/** 1 for the numerical attributes, 0 for the categorical ones */
+	
+	protected ByteBuffer numericalBuffer;
+	
+	/** Weights of the population in single precision, one weight matrix after another */
+	
+	protected ByteBuffer weightsBuffer;
+	
+	/** Confusion matrix of each individual, filled by the native evaluation */
+	
+	protected ByteBuffer confusionBuffer;
 	
 	/** Number of CPU threads or GPU devices */
 
@@ -29,6 +53,8 @@ public class DGCEvaluatorGPU extends DGCEvaluator
 
 	private int numberAttributes;
 	
+	private int numberClasses;
+	
 	/////////////////////////////////////////////////////////////////
 	// --------------------------------------- Serialization constant
 	/////////////////////////////////////////////////////////////////
@@ -71,76 +97,163 @@ public class DGCEvaluatorGPU extends DGCEvaluator
 	public void prepare(DGCAlgorithmGPU algorithm)
 	{
 		this.algorithm = algorithm;
-		instances = algorithm.getTrainSet().getExamples();
+		data = ((DGCSpecies) algorithm.getSpecies()).getData();
+		classes = ((DGCSpecies) algorithm.getSpecies()).getClasses();
 		
 		numberThreads = 1;
 		
-		try {
-			System.loadLibrary("jclec_gpu");
-		} catch (Exception e) {
-			System.out.println("Can't load jclec_gpu library. Please make sure to include gpu library path");
-			System.exit(0);
-		}
-		
-		int numberInstances = instances.size();
-		int numberClasses = ((ClassicClassificationMetadata)algorithm.getTrainSet().getMetadata()).numberOfClasses();
+		int numberInstances = classes.length;
+		numberClasses = ((ClassicClassificationMetadata)algorithm.getTrainSet().getMetadata()).numberOfClasses();
 		numberAttributes = ((ClassicClassificationMetadata)algorithm.getTrainSet().getMetadata()).numberOfAttributes();
+		
+		if(backend == null)
+		{
+			if(DGCNativeBackend.isAvailable())
+			{
+				if(numberAttributes > DGCNativeBackend.MAX_ATTRIBUTES)
+					System.out.println("The train set has more than " + DGCNativeBackend.MAX_ATTRIBUTES + " attributes, evaluating on the CPU");
+				else if((backend = DGCNativeBackend.acquire()) == null)
+					System.out.println("The GPU devices are in use, evaluating on the CPU");
+			}
+			
+			if(backend == null)
+				backend = new DGCJavaBackend(algorithm.getExecutor());
+		}
 		int popSize = algorithm.getPopulationSize();
 		
-		nativeMalloc(popSize, numberThreads, numberAttributes, numberInstances, numberClasses, this);
+		// Pack the train set once, the backend copies it
+		instancesBuffer = allocate(instancesBuffer, numberAttributes * numberInstances * 4);
+		classesBuffer = allocate(classesBuffer, numberInstances * 4);
+		numberInstancesClassBuffer = allocate(numberInstancesClassBuffer, numberClasses * 4);
+		numericalBuffer = allocate(numericalBuffer, numberAttributes * 4);
+		
+		FloatBuffer instances = instancesBuffer.asFloatBuffer();
+		
+		for(int i = 0; i < numberAttributes * numberInstances; i++)
+			instances.put((float) data[i]);
+		
+		classesBuffer.asIntBuffer().put(classes);
+		numberInstancesClassBuffer.asIntBuffer().put(((DGCSpecies) algorithm.getSpecies()).getNumberInstances(), 0, numberClasses);
+		
+		IntBuffer numerical = numericalBuffer.asIntBuffer();
+		
+		for(int i = 0; i < numberAttributes; i++)
+			numerical.put(((DGCSpecies) algorithm.getSpecies()).isNumerical(i) ? 1 : 0);
+		
+		allocatePopulation(popSize);
+		
+		backend.malloc(popSize, numberThreads, numberAttributes, numberInstances, numberClasses, instancesBuffer, classesBuffer, numberInstancesClassBuffer, numericalBuffer);
 	}
 	
-	public float getWeight(int individual, int attribute, int Class)
+	/**
+	 * Computes the fitness of the population with the backend
+	 * 
+	 * @param pop population of weight matrices
+	 * @return the fitness of each individual
+	 */
+	public double [] valuesOf(double[][] pop)
+    {
+		fitness = new double[pop.length];
+		
+		int[][][] confusionMatrices = confusionMatrices(pop);
+        
+        for(int k = 0; k < pop.length; k++)
+        	fitness[k] = valueOf(confusionMatrices[k]);
+        
+        return fitness;
+    }
+	
+	/**
+	 * Computes the confusion matrix of each individual with the backend. The
+	 * weights are packed into a direct buffer in one pass, and the confusion
+	 * matrices of the individuals come back through another one.
+	 * 
+	 * @param pop population of weight matrices
+	 * @return the confusion matrix of each individual
+	 */
+	public int[][][] confusionMatrices(double[][] pop)
 	{
-		return (float) population[individual][Class*numberAttributes + attribute]; 
+		allocatePopulation(pop.length);
+		
+		FloatBuffer weights = weightsBuffer.asFloatBuffer();
+		
+		for(int k = 0; k < pop.length; k++)
+			for(int i = 0; i < pop[k].length; i++)
+				weights.put((float) pop[k][i]);
+		
+		backend.evaluate(pop.length, weightsBuffer, confusionBuffer);
+		
+		IntBuffer confusion = confusionBuffer.asIntBuffer();
+		
+		int[][][] confusionMatrices = new int[pop.length][numberClasses][numberClasses];
+		
+		for(int k = 0; k < pop.length; k++)
+			for(int i = 0; i < numberClasses; i++)
+				confusion.get(confusionMatrices[k][i]);
+		
+		return confusionMatrices;
 	}
 	
-	public int getNumberInstances(int Class)
+	/**
+	 * Releases the backend once the training is finished. The memory of the
+	 * native backend is kept in a pool for the next evaluator, the buffers of
+	 * this evaluator are kept for a new preparation.
+	 */
+	public void close()
 	{
-		return ((DGCSpecies) algorithm.getSpecies()).getNumberInstances()[Class];
+		if(backend != null)
+		{
+			backend.free();
+			backend = null;
+		}
 	}
 	
-	public boolean isNumerical(int att)
+	/**
+	 * @return the evaluation backend, null before the evaluator is prepared
+	 */
+	public DGCEvaluationBackend getBackend()
 	{
-		return ((DGCSpecies) algorithm.getSpecies()).isNumerical(att);
+		return backend;
 	}
 	
 	/**
-	 * Gets the attribute value for a certain instance
+	 * Sets the evaluation backend used by the next preparation. By default the
+	 * native backend is used if the jclec_gpu library can be loaded and the
+	 * train set has at most DGCNativeBackend.MAX_ATTRIBUTES attributes, and the
+	 * Java backend otherwise.
 	 * 
-	 * @param the instance index and the attribute index
-	 * @return the value
+	 * @param backend evaluation backend
 	 */
-	
-	public float getValue(int instance, int attribute)
+	public void setBackend(DGCEvaluationBackend backend)
 	{
-		return (float) ((ClassicInstance) instances.get(instance)).getValue(attribute);
+		this.backend = backend;
 	}
 	
-	public float getClassValue(int instance)
+	/**
+	 * Allocates the weights and confusion buffers for a population, unless the
+	 * current ones are large enough
+	 * 
+	 * @param popSize population size
+	 */
+	private void allocatePopulation(int popSize)
 	{
-		return (float) ((ClassicInstance) instances.get(instance)).getClassValue();
+		weightsBuffer = allocate(weightsBuffer, popSize * numberClasses * numberAttributes * 4);
+		confusionBuffer = allocate(confusionBuffer, popSize * numberClasses * numberClasses * 4);
 	}
 	
 	/**
-	 * Set the fitness to index individual
+	 * Allocates a direct buffer in native byte order, unless the current one is
+	 * large enough
 	 * 
-	 * @param the index from the individual at indsToEvaluate and its fitness
-	 */	
-	
-	public void setFitness(int index, float fit)
+	 * @param buffer current buffer, null if none
+	 * @param bytes capacity in bytes
+	 * @return the buffer
+	 */
+	private static ByteBuffer allocate(ByteBuffer buffer, int bytes)
 	{
-		fitness[index] = fit;
-	}
-	
-	public double [] valuesOf(double[][] pop)
-    {
-		population = pop;
-		
-		fitness = new double[pop.length];
+		if(buffer != null && buffer.capacity() >= bytes)
+			return buffer;
 		
-        nativeEvaluate(pop.length, this);
-        
-        return fitness;
-    }
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
 }
\ No newline at end of file
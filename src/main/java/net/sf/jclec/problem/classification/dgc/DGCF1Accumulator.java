@@ -0,0 +1,51 @@
+package net.sf.jclec.problem.classification.dgc;
+
+/**
+ * Macro-averaged F1 fitness accumulator
+ *
+ * Mean over the classes of the harmonic mean of precision and recall.
+ * Classes neither present nor predicted are not averaged.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCF1Accumulator extends DGCFitnessAccumulator
+{
+	private static final long serialVersionUID = 5528734670198533208L;
+	
+	/**
+	 * Computes the fitness from a confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 * @return 1.0 - macro-averaged F1
+	 */
+	public double valueOf(int[][] confusionMatrix)
+	{
+		int numberClasses = confusionMatrix.length;
+		int[] actual = new int[numberClasses];
+		int[] predicted = new int[numberClasses];
+		
+		for(int i = 0; i < numberClasses; i++)
+			for(int j = 0; j < numberClasses; j++)
+			{
+				actual[i] += confusionMatrix[i][j];
+				predicted[j] += confusionMatrix[i][j];
+			}
+		
+		double f1 = 0.0;
+		int averaged = 0;
+		
+		for(int c = 0; c < numberClasses; c++)
+		{
+			if(actual[c] + predicted[c] == 0)
+				continue;
+			
+			// 2TP / (2TP + FP + FN)
+			f1 += 2.0 * confusionMatrix[c][c] / (double) (actual[c] + predicted[c]);
+			averaged++;
+		}
+		
+		return averaged == 0 ? 1.0 : 1.0 - f1 / averaged;
+	}
+}
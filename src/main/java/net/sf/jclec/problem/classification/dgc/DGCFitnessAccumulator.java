@@ -0,0 +1,139 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Streaming fitness accumulator
+ *
+ * Collects the classification of the train instances by an individual as
+ * the evaluation kernel predicts them, one instance at a time and from any
+ * number of evaluation threads, without storing the predicted classes. The
+ * confusion counts are the only state, so every metric derived from them is
+ * available with the same single pass. Subclasses define the fitness, which
+ * is minimized.
+ *
+ * An accumulator configured for a metric acts as prototype: the evaluator
+ * obtains empty accumulators of the same metric for each individual.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public abstract class DGCFitnessAccumulator implements Cloneable, Serializable
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	private static final long serialVersionUID = 4174503920135627331L;
+	
+	/** Number of classes */
+	
+	protected int numberClasses;
+	
+	/** Confusion counts, actual class by rows and predicted class by columns */
+	
+	private AtomicIntegerArray counts;
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Returns a copy of the metric configuration, the counts are shared
+	 * @return the copy
+	 */
+	public DGCFitnessAccumulator copy()
+	{
+		try {
+			return (DGCFitnessAccumulator) super.clone();
+		}
+		catch(CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Returns an empty accumulator of the same metric
+	 * @param numberClasses number of classes
+	 * @return the accumulator
+	 */
+	public DGCFitnessAccumulator newAccumulator(int numberClasses)
+	{
+		DGCFitnessAccumulator accumulator = copy();
+		
+		accumulator.numberClasses = numberClasses;
+		accumulator.counts = new AtomicIntegerArray(numberClasses * numberClasses);
+		
+		return accumulator;
+	}
+	
+	/**
+	 * Returns empty accumulators of the same metric
+	 * @param number number of accumulators
+	 * @param numberClasses number of classes
+	 * @return the accumulators
+	 */
+	public DGCFitnessAccumulator[] newAccumulators(int number, int numberClasses)
+	{
+		DGCFitnessAccumulator[] accumulators = new DGCFitnessAccumulator[number];
+		
+		for(int k = 0; k < number; k++)
+			accumulators[k] = newAccumulator(numberClasses);
+		
+		return accumulators;
+	}
+	
+	/**
+	 * Accumulates the prediction of an instance, safe to call concurrently
+	 * @param actual actual class of the instance
+	 * @param predicted predicted class of the instance
+	 */
+	public void add(int actual, int predicted)
+	{
+		counts.incrementAndGet(actual * numberClasses + predicted);
+	}
+	
+	/**
+	 * Accumulates the predictions summarized by a confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 */
+	public void add(int[][] confusionMatrix)
+	{
+		for(int i = 0; i < numberClasses; i++)
+			for(int j = 0; j < numberClasses; j++)
+				if(confusionMatrix[i][j] != 0)
+					counts.addAndGet(i * numberClasses + j, confusionMatrix[i][j]);
+	}
+	
+	/**
+	 * @return the confusion matrix of the accumulated predictions
+	 */
+	public int[][] getConfusionMatrix()
+	{
+		int[][] confusionMatrix = new int[numberClasses][numberClasses];
+		
+		for(int i = 0; i < numberClasses; i++)
+			for(int j = 0; j < numberClasses; j++)
+				confusionMatrix[i][j] = counts.get(i * numberClasses + j);
+		
+		return confusionMatrix;
+	}
+	
+	/**
+	 * @return the fitness of the accumulated predictions
+	 */
+	public double value()
+	{
+		return valueOf(getConfusionMatrix());
+	}
+	
+	/**
+	 * Computes the fitness from a confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 * @return the fitness, lower is better
+	 */
+	public abstract double valueOf(int[][] confusionMatrix);
+}
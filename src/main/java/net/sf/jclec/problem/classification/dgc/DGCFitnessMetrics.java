@@ -0,0 +1,108 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Fitness metric registry
+ *
+ * Maps metric names to fitness accumulator prototypes. Every metric is
+ * computed from the confusion counts of an individual, so any evaluation
+ * backend that reduces the predictions into a confusion matrix (the CPU
+ * engines stream them into an accumulator, the GPU reduces them on the
+ * device) supports all of them. New metrics can be registered at runtime.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCFitnessMetrics
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	/** Registered prototypes by name */
+	
+	private static final Map<String, DGCFitnessAccumulator> metrics = new LinkedHashMap<String, DGCFitnessAccumulator>();
+	
+	static
+	{
+		register("error", new DGCErrorRateAccumulator());
+		register("auc", new DGCBinaryAUCAccumulator());
+		register("macro-auc", new DGCMacroAUCAccumulator());
+		register("gmean", new DGCGeometricMeanAccumulator());
+		register("kappa", new DGCKappaAccumulator());
+		register("f1", new DGCF1Accumulator());
+		register("balanced-accuracy", new DGCBalancedAccuracyAccumulator());
+		register("cost", new DGCCostSensitiveAccumulator());
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Registers a fitness metric
+	 * @param name metric name
+	 * @param prototype fitness accumulator prototype of the metric
+	 */
+	public static synchronized void register(String name, DGCFitnessAccumulator prototype)
+	{
+		metrics.put(name, prototype);
+	}
+	
+	/**
+	 * Returns a new prototype of a registered metric
+	 * @param name metric name
+	 * @return the fitness accumulator prototype, a copy that can be configured
+	 * @throws IllegalArgumentException if the metric is not registered
+	 */
+	public static synchronized DGCFitnessAccumulator get(String name)
+	{
+		DGCFitnessAccumulator prototype = metrics.get(name);
+		
+		if(prototype == null)
+			throw new IllegalArgumentException("Unknown fitness metric " + name + ", available metrics are " + metrics.keySet());
+		
+		return prototype.copy();
+	}
+	
+	/**
+	 * Returns the prototype of a registered metric, with the cost matrix of the
+	 * cost-sensitive metrics
+	 * @param name metric name
+	 * @param costMatrix cost matrix as parsed by DGCCostSensitiveAccumulator, null or empty for unit costs
+	 * @return the fitness accumulator prototype
+	 */
+	public static DGCFitnessAccumulator get(String name, String costMatrix)
+	{
+		DGCFitnessAccumulator prototype = get(name);
+		
+		if(prototype instanceof DGCCostSensitiveAccumulator && costMatrix != null && costMatrix.trim().length() != 0)
+			((DGCCostSensitiveAccumulator) prototype).setCostMatrix(DGCCostSensitiveAccumulator.parseCostMatrix(costMatrix));
+		
+		return prototype;
+	}
+	
+	/**
+	 * Returns the metric of an evaluator for imbalanced data: the AUC on two
+	 * classes, the macro-averaged AUC on more
+	 * @param numberClasses number of classes
+	 * @return the fitness accumulator prototype
+	 */
+	public static DGCFitnessAccumulator auc(int numberClasses)
+	{
+		return get(numberClasses == 2 ? "auc" : "macro-auc");
+	}
+	
+	/**
+	 * @return the names of the registered metrics
+	 */
+	public static synchronized Set<String> names()
+	{
+		return metrics.keySet();
+	}
+}
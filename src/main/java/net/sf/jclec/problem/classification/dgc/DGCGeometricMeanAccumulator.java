@@ -0,0 +1,44 @@
+package net.sf.jclec.problem.classification.dgc;
+
+/**
+ * Geometric mean fitness accumulator
+ *
+ * Geometric mean of the recall of each class, zero as soon as a class is
+ * never predicted right. Classes without instances are not considered.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCGeometricMeanAccumulator extends DGCFitnessAccumulator
+{
+	private static final long serialVersionUID = 2816335204790455817L;
+	
+	/**
+	 * Computes the fitness from a confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 * @return 1.0 - geometric mean of the recalls
+	 */
+	public double valueOf(int[][] confusionMatrix)
+	{
+		double product = 1.0;
+		int classes = 0;
+		
+		for(int i = 0; i < confusionMatrix.length; i++)
+		{
+			int actual = 0;
+			
+			for(int j = 0; j < confusionMatrix.length; j++)
+				actual += confusionMatrix[i][j];
+			
+			if(actual == 0)
+				continue;
+			
+			product *= confusionMatrix[i][i] / (double) actual;
+			classes++;
+		}
+		
+		return classes == 0 ? 1.0 : 1.0 - Math.pow(product, 1.0 / classes);
+	}
+}
@@ -0,0 +1,286 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Java evaluation backend
+ *
+ * Evaluates on the CPU threads of an executor with the algorithm of the CUDA
+ * kernels, in single precision and in the same order of operations, so the
+ * confusion matrices match those of the devices. The gravitation of each
+ * class sums the rows of the class in order, the numerical attributes before
+ * the categorical ones, and the predicted class is the first with the highest
+ * positive gravitation, class 0 otherwise. It is the fallback when the native
+ * library is not available. DGCBackendParity checks it against the double
+ * precision engine of the evaluator.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCJavaBackend implements DGCEvaluationBackend
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	/** Number of instances classified by each task */
+	
+	private static final int QUERY_BLOCK = 64;
+	
+	/** Evaluation executor */
+	
+	private ForkJoinPool executor;
+	
+	private int numberAttributes;
+	
+	private int numberInstances;
+	
+	private int numberClasses;
+	
+	/** Number of numerical attributes, the first ones of each row */
+	
+	private int numberNumerical;
+	
+	/** Attribute of each position of the rows, the numerical ones first */
+	
+	private int[] attributes;
+	
+	/** Train values by rows, sorted by class keeping the order of the instances */
+	
+	private float[] rows;
+	
+	/** Instance of each sorted row */
+	
+	private int[] instances;
+	
+	/** Class of each sorted row */
+	
+	private int[] classes;
+	
+	/** First sorted row of each class, the last position holds the number of rows */
+	
+	private int[] classOffsets;
+	
+	/** Factor that compensates the number of instances of each class */
+	
+	private float[] priors;
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Constructor
+	 * @param executor evaluation executor
+	 */
+	public DGCJavaBackend(ForkJoinPool executor)
+	{
+		super();
+		
+		this.executor = executor;
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	public void malloc(int popSize, int numThreads, int numberAttributes, int numberInstances, int numberClasses, ByteBuffer instances, ByteBuffer classes, ByteBuffer numberInstancesClass, ByteBuffer numerical)
+	{
+		this.numberAttributes = numberAttributes;
+		this.numberInstances = numberInstances;
+		this.numberClasses = numberClasses;
+		
+		IntBuffer numericalFlags = numerical.asIntBuffer();
+		
+		attributes = new int[numberAttributes];
+		numberNumerical = 0;
+		
+		for(int i = 0; i < numberAttributes; i++)
+			if(numericalFlags.get(i) != 0)
+				attributes[numberNumerical++] = i;
+		
+		for(int i = 0, j = numberNumerical; i < numberAttributes; i++)
+			if(numericalFlags.get(i) == 0)
+				attributes[j++] = i;
+		
+		IntBuffer instancesClass = classes.asIntBuffer();
+		IntBuffer counts = numberInstancesClass.asIntBuffer();
+		
+		classOffsets = new int[numberClasses+1];
+		priors = new float[numberClasses];
+		
+		for(int c = 0; c < numberClasses; c++)
+			priors[c] = 1.0f - ((counts.get(c) - 1) / (float) numberInstances);
+		
+		for(int i = 0; i < numberInstances; i++)
+			classOffsets[instancesClass.get(i)+1]++;
+		
+		for(int c = 0; c < numberClasses; c++)
+			classOffsets[c+1] += classOffsets[c];
+		
+		FloatBuffer values = instances.asFloatBuffer();
+		int[] next = classOffsets.clone();
+		
+		this.rows = new float[numberInstances * numberAttributes];
+		this.instances = new int[numberInstances];
+		this.classes = new int[numberInstances];
+		
+		for(int i = 0; i < numberInstances; i++)
+		{
+			int row = next[instancesClass.get(i)]++;
+			
+			this.instances[row] = i;
+			this.classes[row] = instancesClass.get(i);
+			
+			for(int p = 0; p < numberAttributes; p++)
+				this.rows[row * numberAttributes + p] = values.get(attributes[p] * numberInstances + i);
+		}
+	}
+	
+	public void evaluate(int popSize, ByteBuffer weights, ByteBuffer confusionMatrices)
+	{
+		int size = numberClasses * numberAttributes;
+		FloatBuffer values = weights.asFloatBuffer();
+		float[] pop = new float[popSize * size];
+		
+		// Weights in the order of the attributes of the rows
+		for(int k = 0; k < popSize; k++)
+			for(int c = 0; c < numberClasses; c++)
+				for(int p = 0; p < numberAttributes; p++)
+					pop[k * size + c * numberAttributes + p] = values.get(k * size + c * numberAttributes + attributes[p]);
+		
+		AtomicIntegerArray confusion = new AtomicIntegerArray(popSize * numberClasses * numberClasses);
+		
+		executor.invoke(new evaluationTask(pop, confusion, 0, popSize, 0, numberInstances));
+		
+		IntBuffer matrices = confusionMatrices.asIntBuffer();
+		
+		for(int i = 0; i < confusion.length(); i++)
+			matrices.put(i, confusion.get(i));
+	}
+	
+	public void free()
+	{
+		rows = null;
+		instances = null;
+		classes = null;
+	}
+	
+	public boolean isNative()
+	{
+		return false;
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ---------------------------------------------- Private methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Classifies a block of sorted rows with an individual, excluding each row
+	 * from its own gravitation
+	 * @param pop weight matrices in the order of the attributes of the rows
+	 * @param confusion confusion matrices of the population
+	 * @param individual individual index
+	 * @param from first row of the block
+	 * @param to last row of the block (exclusive)
+	 */
+	private void evaluate(float[] pop, AtomicIntegerArray confusion, int individual, int from, int to)
+	{
+		int d = numberAttributes;
+		int[] counts = new int[numberClasses * numberClasses];
+		
+		for(int q = from; q < to; q++)
+		{
+			float maxGravity = 0.0f;
+			int maxGravityClass = 0;
+			
+			for(int c = 0; c < numberClasses; c++)
+			{
+				int base = (individual * numberClasses + c) * d;
+				float gravity = 0.0f;
+				
+				for(int j = classOffsets[c]; j < classOffsets[c+1]; j++)
+				{
+					if(j == q)
+						continue;
+					
+					float distance = 0.0f;
+					
+					for(int p = 0; p < numberNumerical; p++)
+					{
+						float diff = rows[j * d + p] - rows[q * d + p];
+						distance += pop[base + p] * diff * diff;
+					}
+					
+					for(int p = numberNumerical; p < d; p++)
+						distance += pop[base + p] * (rows[j * d + p] != rows[q * d + p] ? 1.0f : 0.0f);
+					
+					gravity += 1.0f / distance;
+				}
+				
+				gravity *= priors[c];
+				
+				if(gravity > maxGravity)
+				{
+					maxGravity = gravity;
+					maxGravityClass = c;
+				}
+			}
+			
+			counts[classes[q] * numberClasses + maxGravityClass]++;
+		}
+		
+		int offset = individual * numberClasses * numberClasses;
+		
+		for(int i = 0; i < counts.length; i++)
+			if(counts[i] != 0)
+				confusion.addAndGet(offset + i, counts[i]);
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------ Private tasks
+	/////////////////////////////////////////////////////////////////
+	
+	private class evaluationTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private float[] pop;
+		private AtomicIntegerArray confusion;
+		private int popFrom, popTo;
+		private int from, to;
+		
+		public evaluationTask(float[] pop, AtomicIntegerArray confusion, int popFrom, int popTo, int from, int to)
+		{
+			this.pop = pop;
+			this.confusion = confusion;
+			this.popFrom = popFrom;
+			this.popTo = popTo;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute()
+		{
+			if(popTo - popFrom > 1)
+			{
+				int middle = (popFrom + popTo) >>> 1;
+				invokeAll(new evaluationTask(pop, confusion, popFrom, middle, from, to), new evaluationTask(pop, confusion, middle, popTo, from, to));
+			}
+			else if(to - from > QUERY_BLOCK)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new evaluationTask(pop, confusion, popFrom, popTo, from, middle), new evaluationTask(pop, confusion, popFrom, popTo, middle, to));
+			}
+			else if(popFrom < popTo)
+				evaluate(pop, confusion, popFrom, from, to);
+		}
+	}
+}
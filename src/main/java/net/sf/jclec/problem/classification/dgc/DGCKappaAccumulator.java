@@ -0,0 +1,56 @@
+package net.sf.jclec.problem.classification.dgc;
+
+/**
+ * Cohen's Kappa fitness accumulator
+ *
+ * Agreement between the predicted and the actual classes corrected by the
+ * agreement expected by chance from their marginal frequencies.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCKappaAccumulator extends DGCFitnessAccumulator
+{
+	private static final long serialVersionUID = -6154290487710732093L;
+	
+	/**
+	 * Computes the fitness from a confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 * @return 1.0 - Kappa, between 0 and 2
+	 */
+	public double valueOf(int[][] confusionMatrix)
+	{
+		int numberClasses = confusionMatrix.length;
+		long[] actual = new long[numberClasses];
+		long[] predicted = new long[numberClasses];
+		long total = 0, hits = 0;
+		
+		for(int i = 0; i < numberClasses; i++)
+			for(int j = 0; j < numberClasses; j++)
+			{
+				actual[i] += confusionMatrix[i][j];
+				predicted[j] += confusionMatrix[i][j];
+				total += confusionMatrix[i][j];
+			}
+		
+		for(int i = 0; i < numberClasses; i++)
+			hits += confusionMatrix[i][i];
+		
+		if(total == 0)
+			return 1.0;
+		
+		double observed = hits / (double) total;
+		double expected = 0.0;
+		
+		for(int i = 0; i < numberClasses; i++)
+			expected += (actual[i] / (double) total) * (predicted[i] / (double) total);
+		
+		// Every instance in a single class predicted as such
+		if(expected == 1.0)
+			return observed == 1.0 ? 0.0 : 1.0;
+		
+		return 1.0 - (observed - expected) / (1.0 - expected);
+	}
+}
@@ -0,0 +1,57 @@
+package net.sf.jclec.problem.classification.dgc;
+
+/**
+ * Macro-averaged AUC fitness accumulator
+ *
+ * Mean of the one-versus-rest areas under the ROC curve of the crisp
+ * predictions of each class. Classes without instances, or without instances
+ * of the other classes, are not averaged. On two classes it equals the binary
+ * AUC.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCMacroAUCAccumulator extends DGCFitnessAccumulator
+{
+	private static final long serialVersionUID = -3349025117856011280L;
+	
+	/**
+	 * Computes the fitness from a confusion matrix
+	 * @param confusionMatrix the confusion matrix
+	 * @return 1.0 - macro-averaged AUC
+	 */
+	public double valueOf(int[][] confusionMatrix)
+	{
+		int numberClasses = confusionMatrix.length;
+		int[] actual = new int[numberClasses];
+		int[] predicted = new int[numberClasses];
+		int total = 0;
+		
+		for(int i = 0; i < numberClasses; i++)
+			for(int j = 0; j < numberClasses; j++)
+			{
+				actual[i] += confusionMatrix[i][j];
+				predicted[j] += confusionMatrix[i][j];
+				total += confusionMatrix[i][j];
+			}
+		
+		double auc = 0.0;
+		int averaged = 0;
+		
+		for(int c = 0; c < numberClasses; c++)
+		{
+			if(actual[c] == 0 || actual[c] == total)
+				continue;
+			
+			double truePositiveRate = confusionMatrix[c][c] / (double) actual[c];
+			double falsePositiveRate = (predicted[c] - confusionMatrix[c][c]) / (double) (total - actual[c]);
+			
+			auc += (1.0 + truePositiveRate - falsePositiveRate) / 2.0;
+			averaged++;
+		}
+		
+		return averaged == 0 ? 0.5 : 1.0 - auc / averaged;
+	}
+}
@@ -0,0 +1,164 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Native evaluation backend
+ *
+ * Evaluates on the GPU devices with the CUDA kernels of the jclec_gpu
+ * library. The library keeps a single evaluation context, so only one native
+ * backend can hold it at a time. Freeing a backend returns the context to the
+ * pool with its device memory, which the next backend reuses if its train set
+ * is not larger, as the folds of a cross-validation. The memory of the idle
+ * context is freed by freePool, and when the virtual machine exits.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCNativeBackend implements DGCEvaluationBackend
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	/** Maximum number of attributes of the CUDA kernels, MAX_ATTRIBUTES of parameters.h */
+	
+	public static final int MAX_ATTRIBUTES = 256;
+	
+	/** Name of the native library */
+	
+	private static final String LIBRARY = "jclec_gpu";
+	
+	/** Whether the library was loaded, null before the first attempt */
+	
+	private static Boolean available;
+	
+	/** Backend that holds the native context, null if it is idle */
+	
+	private static DGCNativeBackend owner;
+	
+	/** Native functions */
+	
+	private static native void nativeMalloc(int popSize, int numThreads, int numberAttributes, int numberInstances, int numberClasses, ByteBuffer instances, ByteBuffer classes, ByteBuffer numberInstancesClass, ByteBuffer numerical);
+	private static native void nativeEvaluate(int popSize, ByteBuffer weights, ByteBuffer confusionMatrices);
+	private static native void nativeFree();
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	private DGCNativeBackend()
+	{
+		super();
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Loads the native library on the first call
+	 * @return true if the library is loaded
+	 */
+	public static synchronized boolean isAvailable()
+	{
+		if(available == null)
+		{
+			try {
+				System.loadLibrary(LIBRARY);
+				available = true;
+			} catch (Throwable e) {
+				System.out.println("Can't load jclec_gpu library, evaluating on the CPU. Please make sure to include gpu library path");
+				available = false;
+			}
+			
+			if(available)
+			{
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					public void run() {
+						freePool();
+					}
+				});
+			}
+		}
+		
+		return available;
+	}
+	
+	/**
+	 * Takes the native context
+	 * @return the backend that holds the context, null if the library is not
+	 * available or another backend holds it
+	 */
+	public static synchronized DGCNativeBackend acquire()
+	{
+		if(!isAvailable() || owner != null)
+			return null;
+		
+		owner = new DGCNativeBackend();
+		
+		return owner;
+	}
+	
+	/**
+	 * Frees the device memory of the native context, unless a backend holds it
+	 * or the library is not loaded
+	 */
+	public static synchronized void freePool()
+	{
+		if(owner == null && Boolean.TRUE.equals(available))
+			nativeFree();
+	}
+	
+	public void malloc(int popSize, int numThreads, int numberAttributes, int numberInstances, int numberClasses, ByteBuffer instances, ByteBuffer classes, ByteBuffer numberInstancesClass, ByteBuffer numerical)
+	{
+		checkOwner();
+		
+		if(numberAttributes > MAX_ATTRIBUTES)
+			throw new IllegalArgumentException("The train set has " + numberAttributes + " attributes but the GPU kernels support at most " + MAX_ATTRIBUTES);
+		
+		nativeMalloc(popSize, numThreads, numberAttributes, numberInstances, numberClasses, instances, classes, numberInstancesClass, numerical);
+	}
+	
+	public void evaluate(int popSize, ByteBuffer weights, ByteBuffer confusionMatrices)
+	{
+		checkOwner();
+		nativeEvaluate(popSize, weights, confusionMatrices);
+	}
+	
+	/**
+	 * Returns the native context to the pool, its device memory is kept for
+	 * the next backend
+	 */
+	public void free()
+	{
+		synchronized(DGCNativeBackend.class)
+		{
+			if(owner == this)
+				owner = null;
+		}
+	}
+	
+	public boolean isNative()
+	{
+		return true;
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ---------------------------------------------- Private methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Checks that the backend still holds the native context
+	 */
+	private void checkOwner()
+	{
+		synchronized(DGCNativeBackend.class)
+		{
+			if(owner != this)
+				throw new IllegalStateException("The native context has been freed");
+		}
+	}
+}
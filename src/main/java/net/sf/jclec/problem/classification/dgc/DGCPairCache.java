@@ -0,0 +1,246 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Cache of the attribute difference terms between every pair of train rows
+ *
+ * The squared numerical differences and the categorical mismatch bits do not
+ * depend on the weights, so they are computed once and the weighted distance
+ * between two rows becomes a dot product with the class weight row. Terms are
+ * stored off-heap for the upper triangle of the pair matrix, either as floats
+ * or quantized to one byte (the absolute difference in 1/255 steps).
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCPairCache
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	/** Maximum number of bytes of each off-heap segment */
+	
+	private static final long SEGMENT_SIZE = 1L << 30;
+	
+	/** Decoded squared value of each quantized difference */
+	
+	private static final float[] SQUARES = new float[256];
+	
+	static
+	{
+		for(int i = 0; i < 256; i++)
+			SQUARES[i] = (i / 255f) * (i / 255f);
+	}
+	
+	/** Number of attributes */
+	
+	private int numAttributes;
+	
+	/** Number of rows */
+	
+	private int numberRows;
+	
+	/** Terms are quantized to one byte */
+	
+	private boolean quantized;
+	
+	/** Off-heap segments, each holding the pairs of a range of rows */
+	
+	private ByteBuffer[] segments;
+	
+	/** Float views of the segments */
+	
+	private FloatBuffer[] floatSegments;
+	
+	/** Segment of the pairs of each row */
+	
+	private int[] segment;
+	
+	/** Position in its segment of the first term of each row */
+	
+	private int[] offset;
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	private DGCPairCache(int numberRows, int numAttributes, boolean quantized)
+	{
+		this.numberRows = numberRows;
+		this.numAttributes = numAttributes;
+		this.quantized = quantized;
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Returns the memory required to cache the pairs of the packed train data
+	 * @param numberRows number of packed rows
+	 * @param numAttributes number of attributes
+	 * @param quantized terms are quantized to one byte
+	 * @return number of bytes
+	 */
+	public static long size(int numberRows, int numAttributes, boolean quantized)
+	{
+		return (long) numberRows * (numberRows - 1) / 2 * numAttributes * (quantized ? 1 : 4);
+	}
+	
+	/**
+	 * Builds the cache of the packed train data of a species
+	 * @param species the species, already packed
+	 * @param budget maximum number of bytes
+	 * @param quantized terms are quantized to one byte
+	 * @return the cache, or null if it exceeds the memory budget
+	 */
+	public static DGCPairCache build(DGCSpecies species, long budget, boolean quantized)
+	{
+		int numberRows = species.getNumberRows();
+		int numAttributes = species.attributesNumber;
+		
+		if(numberRows < 2 || size(numberRows, numAttributes, quantized) > budget)
+			return null;
+		
+		DGCPairCache cache = new DGCPairCache(numberRows, numAttributes, quantized);
+		cache.allocate();
+		cache.fill(species);
+		
+		return cache;
+	}
+	
+	/**
+	 * @return true if terms are quantized to one byte
+	 */
+	public boolean isQuantized()
+	{
+		return quantized;
+	}
+	
+	/**
+	 * Copies the terms between a row and a range of rows, attribute-major:
+	 * the term of attribute i and row begin + j is stored at terms[i*stride + j].
+	 * The term of the row with itself is zero.
+	 * @param row the packed row
+	 * @param begin first packed row of the range
+	 * @param length number of rows of the range
+	 * @param terms destination
+	 * @param stride distance between the attributes in the destination
+	 */
+	public void terms(int row, int begin, int length, float[] terms, int stride)
+	{
+		for(int j = 0; j < length; j++)
+		{
+			int other = begin + j;
+			
+			if(other == row)
+			{
+				for(int i = 0; i < numAttributes; i++)
+					terms[i * stride + j] = 0;
+				
+				continue;
+			}
+			
+			int a = Math.min(row, other), b = Math.max(row, other);
+			int position = offset[a] + (b - a - 1) * numAttributes;
+			
+			if(quantized)
+			{
+				ByteBuffer buffer = segments[segment[a]];
+				
+				for(int i = 0; i < numAttributes; i++)
+					terms[i * stride + j] = SQUARES[buffer.get(position + i) & 0xFF];
+			}
+			else
+			{
+				FloatBuffer buffer = floatSegments[segment[a]];
+				
+				for(int i = 0; i < numAttributes; i++)
+					terms[i * stride + j] = buffer.get(position + i);
+			}
+		}
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ---------------------------------------------- Private methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Assigns the rows to segments and allocates them off-heap
+	 */
+	private void allocate()
+	{
+		int bytes = quantized ? 1 : 4;
+		
+		segment = new int[numberRows];
+		offset = new int[numberRows];
+		
+		long[] sizes = new long[numberRows];
+		int numberSegments = 0;
+		long size = 0;
+		
+		for(int a = 0; a < numberRows; a++)
+		{
+			long rowSize = (long) (numberRows - 1 - a) * numAttributes * bytes;
+			
+			if(size + rowSize > SEGMENT_SIZE && size > 0)
+			{
+				sizes[numberSegments++] = size;
+				size = 0;
+			}
+			
+			segment[a] = numberSegments;
+			offset[a] = (int) (size / bytes);
+			size += rowSize;
+		}
+		
+		sizes[numberSegments++] = size;
+		
+		segments = new ByteBuffer[numberSegments];
+		floatSegments = new FloatBuffer[numberSegments];
+		
+		for(int s = 0; s < numberSegments; s++)
+		{
+			segments[s] = ByteBuffer.allocateDirect((int) sizes[s]).order(ByteOrder.nativeOrder());
+			floatSegments[s] = segments[s].asFloatBuffer();
+		}
+	}
+	
+	/**
+	 * Computes the terms of every pair of packed rows
+	 * @param species the species
+	 */
+	private void fill(DGCSpecies species)
+	{
+		double[] data = species.getData();
+		
+		for(int a = 0; a < numberRows; a++)
+			for(int b = a + 1; b < numberRows; b++)
+			{
+				int position = offset[a] + (b - a - 1) * numAttributes;
+				
+				for(int i = 0; i < numAttributes; i++)
+				{
+					double diff = data[i * numberRows + b] - data[i * numberRows + a];
+					double term;
+					
+					// If the attribute is numerical
+					if(species.isNumerical(i))
+						term = quantized ? Math.min(1.0, Math.abs(diff)) : diff * diff;
+					else
+						term = diff == 0 ? 0 : 1;
+					
+					if(quantized)
+						segments[segment[a]].put(position + i, (byte) Math.round(term * 255));
+					else
+						floatSegments[segment[a]].put(position + i, (float) term);
+				}
+			}
+	}
+}
@@ -12,6 +12,6 @@ public class DGCPopulationReportGPU extends DGCPopulationReport
     	super.doClassificationReport(algorithm);
 		
 		if(algorithm.getEvaluator() instanceof DGCEvaluatorGPU)
-			((DGCEvaluatorGPU) algorithm.getEvaluator()).nativeFree();
+			((DGCEvaluatorGPU) algorithm.getEvaluator()).close();
 	}
 }
@@ -0,0 +1,423 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compiled gravitation scorer
+ *
+ * Immutable snapshot of a trained classifier for serving: the normalization
+ * constants of the attributes, a copy of the packed train columns, the weight
+ * matrix and the class priors. Raw attribute values are normalized as the
+ * species does and classified by the exact gravitation with the distance
+ * kernel of the classifier, with the same results. Predictions do not allocate
+ * memory once each serving thread has its buffers, and any number of threads
+ * can share the scorer. Batches are scored in parallel blocks of instances
+ * that sweep the train rows in cache-sized tiles.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCScorer
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	/** Number of instances scored by each batch task */
+	
+	private static final int QUERY_BLOCK = 64;
+	
+	/** Number of packed values read by each train tile (128 KB) */
+	
+	private static final int ROW_BLOCK_VALUES = 1 << 14;
+	
+	/** Number of attributes */
+	
+	private final int numAttributes;
+	
+	/** Number of classes */
+	
+	private final int numberClasses;
+	
+	/** Indices of the numerical attributes */
+	
+	private final int[] numericalAttributes;
+	
+	/** Indices of the categorical attributes */
+	
+	private final int[] categoricalAttributes;
+	
+	/** Minimum value of each attribute */
+	
+	private final double[] fmin;
+	
+	/** Range of each attribute, rounded to single precision as in the species */
+	
+	private final double[] range;
+	
+	/** Number of packed train rows */
+	
+	private final int numberRows;
+	
+	/** Copy of the packed train columns */
+	
+	private final double[] data;
+	
+	/** First packed row of each class, the last position holds the number of rows */
+	
+	private final int[] classOffsets;
+	
+	/** Number of train rows of each tile */
+	
+	private final int rowBlock;
+	
+	/** Weight matrix */
+	
+	private final double[] weights;
+	
+	/** Factor that compensates the number of instances of each class */
+	
+	private final double[] priors;
+	
+	/** Normalized attribute values of each serving thread */
+	
+	private final ThreadLocal<double[]> queries;
+	
+	/** Distance accumulators of each serving thread */
+	
+	private final ThreadLocal<double[]> distances;
+	
+	/** Distance kernel */
+	
+	private static final DGCDistanceKernel kernel = DGCDistanceKernel.getInstance();
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Compiles a trained classifier
+	 * @param species the species of the classifier
+	 * @param weights the weight matrix
+	 */
+	public DGCScorer(DGCSpecies species, double[] weights)
+	{
+		super();
+		
+		final int numAttributes = species.attributesNumber;
+		final int numberRows = species.getNumberRows();
+		
+		this.numAttributes = numAttributes;
+		this.numberRows = numberRows;
+		this.data = species.getData().clone();
+		this.rowBlock = Math.min(numberRows, Math.max(QUERY_BLOCK, ROW_BLOCK_VALUES / Math.max(1, numAttributes)));
+		this.numberClasses = species.classesNumber;
+		this.numericalAttributes = species.getNumericalAttributes().clone();
+		this.categoricalAttributes = species.getCategoricalAttributes().clone();
+		this.classOffsets = species.getClassOffsets().clone();
+		this.weights = weights.clone();
+		
+		fmin = new double[numAttributes];
+		range = new double[numAttributes];
+		
+		for(int i = 0; i < numAttributes; i++)
+		{
+			fmin[i] = species.fmin[i];
+			range[i] = (float) (species.fmax[i] - species.fmin[i]);
+		}
+		
+		priors = new double[numberClasses];
+		
+		for(int c = 0; c < numberClasses; c++)
+			priors[c] = 1.0 - ((species.getNumberInstances()[c]-1) / (double) numberRows);
+		
+		queries = new ThreadLocal<double[]>() {
+			protected double[] initialValue() {
+				return new double[numAttributes];
+			}
+		};
+		
+		distances = new ThreadLocal<double[]>() {
+			protected double[] initialValue() {
+				return new double[numberRows];
+			}
+		};
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Predicts the class with the highest gravitation
+	 * @param rawValues attribute values before normalization
+	 * @return predicted class
+	 */
+	public int predict(double[] rawValues)
+	{
+		return predict(rawValues, null);
+	}
+	
+	/**
+	 * Predicts the class with the highest gravitation
+	 * @param rawValues attribute values before normalization
+	 * @param outGravities the gravitation to each class, not filled if null
+	 * @return predicted class
+	 */
+	public int predict(double[] rawValues, double[] outGravities)
+	{
+		double[] query = queries.get();
+		double[] distances = this.distances.get();
+		
+		for(int i : numericalAttributes)
+			query[i] = (rawValues[i] - fmin[i]) / range[i];
+		
+		for(int i : categoricalAttributes)
+			query[i] = rawValues[i];
+		
+		double maxGravity = -1;
+		int maxGravityClass = 0;
+		
+		for(int c = 0; c < numberClasses; c++)
+		{
+			double gravity = gravity(query, c, distances) * priors[c];
+			
+			if(outGravities != null)
+				outGravities[c] = gravity;
+			
+			if(gravity > maxGravity)
+			{
+				maxGravity = gravity;
+				maxGravityClass = c;
+			}
+		}
+		
+		return maxGravityClass;
+	}
+	
+	/**
+	 * Computes the class distribution of a batch of instances in parallel
+	 * @param rawValues attribute values before normalization, the values of
+	 * each instance in consecutive positions
+	 * @param numberInstances number of instances of the batch
+	 * @param temperature calibration temperature, 1 for the normalized gravitation
+	 * @param executor scoring executor
+	 * @return the class distribution of each instance
+	 */
+	public double[][] distributions(double[] rawValues, int numberInstances, double temperature, ForkJoinPool executor)
+	{
+		double[] queries = new double[numberInstances * numAttributes];
+		double[][] distributions = new double[numberInstances][numberClasses];
+		
+		for(int q = 0; q < numberInstances; q++)
+		{
+			int row = q * numAttributes;
+			
+			for(int i : numericalAttributes)
+				queries[row + i] = (rawValues[row + i] - fmin[i]) / range[i];
+			
+			for(int i : categoricalAttributes)
+				queries[row + i] = rawValues[row + i];
+		}
+		
+		executor.invoke(new batchTask(queries, distributions, temperature, 0, numberInstances));
+		
+		return distributions;
+	}
+	
+	/**
+	 * Normalizes the gravitation of an instance to every class into a class
+	 * distribution. The gravitation is scaled by its maximum first, so that
+	 * saturated classes do not overflow the sum, and then raised to the inverse
+	 * of the temperature: a softmax of the log-gravitation, sharper below 1 and
+	 * smoother above it.
+	 * @param gravities the gravitation to each class, replaced by the distribution
+	 * @param temperature calibration temperature, 1 for the normalized gravitation
+	 */
+	public static void normalize(double[] gravities, double temperature)
+	{
+		double maxGravity = 0.0;
+		
+		for(int c = 0; c < gravities.length; c++)
+			maxGravity = Math.max(maxGravity, gravities[c]);
+		
+		if(maxGravity == 0)
+		{
+			Arrays.fill(gravities, 1.0 / gravities.length);
+			return;
+		}
+		
+		double sum = 0.0;
+		
+		for(int c = 0; c < gravities.length; c++)
+		{
+			gravities[c] /= maxGravity;
+			
+			if(temperature != 1)
+				gravities[c] = Math.pow(gravities[c], 1.0 / temperature);
+			
+			sum += gravities[c];
+		}
+		
+		for(int c = 0; c < gravities.length; c++)
+			gravities[c] /= sum;
+	}
+	
+	/**
+	 * @return the number of attributes of each instance
+	 */
+	public int getNumberAttributes()
+	{
+		return numAttributes;
+	}
+	
+	/**
+	 * @return the number of classes
+	 */
+	public int getNumberClasses()
+	{
+		return numberClasses;
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ---------------------------------------------- Private methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Sums the inverse weighted distances between a normalized attribute
+	 * vector and the rows of a class
+	 * @param query normalized attribute values
+	 * @param Class data class
+	 * @param distances buffer of as many positions as packed rows
+	 * @return the gravitation, without the class prior
+	 */
+	private double gravity(double[] query, int Class, double[] distances)
+	{
+		int begin = classOffsets[Class];
+		int end = classOffsets[Class+1];
+		int base = Class * numAttributes;
+		
+		Arrays.fill(distances, begin, end, 0.0);
+		
+		for(int i : numericalAttributes)
+			kernel.numerical(data, i * numberRows + begin, query[i], weights[base + i], distances, begin, end - begin);
+		
+		for(int i : categoricalAttributes)
+			kernel.categorical(data, i * numberRows + begin, query[i], weights[base + i], distances, begin, end - begin);
+		
+		double gravity = 0.0;
+		
+		for(int j = begin; j < end; j++)
+		{
+			if(distances[j] == 0)
+				return Double.MAX_VALUE;
+			
+			gravity += 1.0 / distances[j];
+		}
+		
+		return gravity;
+	}
+	
+	/**
+	 * Scores a block of normalized instances tile by tile, so that each tile of
+	 * train rows is read once for the whole block. The gravitation of each
+	 * instance is accumulated in the same order as predict.
+	 * @param queries normalized attribute values of the batch
+	 * @param distributions the distribution of each instance
+	 * @param temperature calibration temperature
+	 * @param from first instance of the block
+	 * @param to last instance of the block (exclusive)
+	 */
+	private void distributions(double[] queries, double[][] distributions, double temperature, int from, int to)
+	{
+		double[] distances = this.distances.get();
+		
+		for(int c = 0; c < numberClasses; c++)
+		{
+			int base = c * numAttributes;
+			int classEnd = classOffsets[c+1];
+			
+			for(int begin = classOffsets[c]; begin < classEnd; begin += rowBlock)
+			{
+				int length = Math.min(rowBlock, classEnd - begin);
+				
+				for(int q = from; q < to; q++)
+				{
+					int row = q * numAttributes;
+					double gravity = distributions[q][c];
+					
+					// Saturated by an instance at zero distance
+					if(gravity == Double.MAX_VALUE)
+						continue;
+					
+					Arrays.fill(distances, 0, length, 0.0);
+					
+					for(int i : numericalAttributes)
+						kernel.numerical(data, i * numberRows + begin, queries[row + i], weights[base + i], distances, 0, length);
+					
+					for(int i : categoricalAttributes)
+						kernel.categorical(data, i * numberRows + begin, queries[row + i], weights[base + i], distances, 0, length);
+					
+					for(int j = 0; j < length; j++)
+					{
+						if(distances[j] == 0)
+						{
+							gravity = Double.MAX_VALUE;
+							break;
+						}
+						
+						gravity += 1.0 / distances[j];
+					}
+					
+					distributions[q][c] = gravity;
+				}
+			}
+		}
+		
+		for(int q = from; q < to; q++)
+		{
+			for(int c = 0; c < numberClasses; c++)
+				distributions[q][c] *= priors[c];
+			
+			normalize(distributions[q], temperature);
+		}
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------ Private tasks
+	/////////////////////////////////////////////////////////////////
+	
+	private class batchTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private double[] queries;
+		private double[][] distributions;
+		private double temperature;
+		private int from, to;
+		
+		public batchTask(double[] queries, double[][] distributions, double temperature, int from, int to)
+		{
+			this.queries = queries;
+			this.distributions = distributions;
+			this.temperature = temperature;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute()
+		{
+			if(to - from > QUERY_BLOCK)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new batchTask(queries, distributions, temperature, from, middle), new batchTask(queries, distributions, temperature, middle, to));
+			}
+			else
+				distributions(queries, distributions, temperature, from, to);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Approximate gravitation evaluation engine
+ *
+ * Evaluates a population on the train set (leave-one-out) with the spatial
+ * index of the species: the near rows of each class are summed exactly and
+ * the far ones approximated within the tolerance of the index, so each
+ * instance visits about a logarithmic number of rows on low-dimensional data.
+ * The index is evaluated in double precision. Species without an index are
+ * evaluated by the tiled engine.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCSpatialEvaluationEngine extends DGCEvaluationEngine
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	private static final long serialVersionUID = -5208163460390417552L;
+	
+	/** Number of instances classified by each task */
+	
+	private static final int QUERY_BLOCK = 32;
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	public DGCSpatialEvaluationEngine(DGCSpecies species)
+	{
+		super(species);
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Classifies a subset of the train set with every individual of a
+	 * population, streaming each prediction into the fitness accumulator of
+	 * the individual
+	 * @param pop population of weight matrices
+	 * @param order order of the packed rows, null for the packed order
+	 * @param from first position of the subset in the order
+	 * @param to last position of the subset in the order (exclusive)
+	 * @param accumulators fitness accumulator of each individual
+	 * @param executor evaluation executor
+	 */
+	@Override
+	public void evaluate(double[][] pop, int[] order, int from, int to, DGCFitnessAccumulator[] accumulators, ForkJoinPool executor)
+	{
+		if(species.getSpatialIndex() == null)
+			super.evaluate(pop, order, from, to, accumulators, executor);
+		else
+			executor.invoke(new queryTask(pop, order, accumulators, from, to));
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ---------------------------------------------- Private methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Classifies a block of train rows with every individual, excluding each
+	 * row from its own gravitation
+	 * @param pop population of weight matrices
+	 * @param order order of the packed rows, null for the packed order
+	 * @param from first position of the block in the order
+	 * @param to last position of the block in the order (exclusive)
+	 * @param counts fitness accumulator of each individual
+	 */
+	private void evaluate(double[][] pop, int[] order, int from, int to, DGCFitnessAccumulator[] counts)
+	{
+		DGCSpatialIndex index = species.getSpatialIndex();
+		double[] data = species.getData();
+		int[] classes = species.getClasses();
+		int numberRows = species.getNumberRows();
+		int numberClasses = species.classesNumber;
+		int numAttributes = species.attributesNumber;
+		
+		double[] query = new double[numAttributes];
+		
+		for(int position = from; position < to; position++)
+		{
+			int row = order != null ? order[position] : position;
+			
+			for(int i = 0; i < numAttributes; i++)
+				query[i] = data[i * numberRows + row];
+			
+			for(int k = 0; k < pop.length; k++)
+			{
+				double maxGravity = -1;
+				int maxGravityClass = 0;
+				
+				for(int c = 0; c < numberClasses; c++)
+				{
+					double gravity = index.gravity(query, row, c, pop[k]);
+					
+					gravity *= 1.0 - ((species.getNumberInstances()[c]-1) / (double) numberRows);
+					
+					if(gravity > maxGravity)
+					{
+						maxGravity = gravity;
+						maxGravityClass = c;
+					}
+				}
+				
+				counts[k].add(classes[row], maxGravityClass);
+			}
+		}
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------ Private tasks
+	/////////////////////////////////////////////////////////////////
+	
+	private class queryTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private double[][] pop;
+		private int[] order;
+		private DGCFitnessAccumulator[] counts;
+		private int from, to;
+		
+		public queryTask(double[][] pop, int[] order, DGCFitnessAccumulator[] counts, int from, int to)
+		{
+			this.pop = pop;
+			this.order = order;
+			this.counts = counts;
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute()
+		{
+			if(to - from > QUERY_BLOCK)
+			{
+				int middle = (from + to) >>> 1;
+				invokeAll(new queryTask(pop, order, counts, from, middle), new queryTask(pop, order, counts, middle, to));
+			}
+			else
+				evaluate(pop, order, from, to, counts);
+		}
+	}
+}
@@ -0,0 +1,598 @@
+package net.sf.jclec.problem.classification.dgc;
+
+/**
+ * Spatial index of the train rows for approximate gravitation
+ *
+ * Each class is indexed by a k-d tree built on the unweighted numerical
+ * attributes, so the same tree serves any weight matrix. For a given weight
+ * row, the weighted distance between a query and the rows of a node is bounded
+ * using the bounding box of the node, and its mean is obtained from the mean
+ * and variance of the node (categorical attributes contribute their weight
+ * unless every row of the node shares the same value). These bound the sum of
+ * the inverse distances of the node, which is approximated Barnes-Hut style by
+ * the middle of the bounds. The child on the side of the query is visited
+ * first, and a node is approximated only while the sum of the errors of the
+ * approximated nodes stays below the tolerance times the gravitation known so
+ * far; other nodes are opened and leaves are summed exactly. The relative error
+ * of the gravitation is thus below the tolerance. Nodes holding a zero distance
+ * or the query row itself are always opened, so saturation and leave-one-out
+ * behave as in the exact sum. The index pays off on large train sets with few
+ * attributes.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCSpatialIndex
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	/** Maximum number of rows of a leaf */
+	
+	private static final int LEAF_SIZE = 16;
+	
+	/** Maximum depth of the traversal stack */
+	
+	private static final int STACK_SIZE = 64;
+	
+	/** Maximum relative error of an approximated node */
+	
+	private double tolerance;
+	
+	/** Number of attributes */
+	
+	private int numAttributes;
+	
+	/** Attributes are numerical */
+	
+	private boolean[] numerical;
+	
+	/** Row-major copy of the train values in tree order */
+	
+	private double[] points;
+	
+	/** Packed row of each tree position */
+	
+	private int[] rows;
+	
+	/** Tree position of each packed row */
+	
+	private int[] positions;
+	
+	/** Root node of each class, -1 if the class is empty */
+	
+	private int[] roots;
+	
+	/** First and last (exclusive) tree positions of each node */
+	
+	private int[] nodeBegin, nodeEnd;
+	
+	/** Children of each node, -1 for leaves */
+	
+	private int[] nodeLeft, nodeRight;
+	
+	/** Attribute each node is split on */
+	
+	private int[] nodeDimension;
+	
+	/**
+	 * Lower and upper bounds, mean and variance of each attribute of each node,
+	 * interleaved. Categorical attributes hold their shared value or NaN as bounds.
+	 */
+	
+	private double[] boxes;
+	
+	/** Number of nodes */
+	
+	private int numberNodes;
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	private DGCSpatialIndex(int numberRows, int numAttributes, int numberClasses, double tolerance)
+	{
+		this.numAttributes = numAttributes;
+		this.tolerance = tolerance;
+		
+		int capacity = 4 * numberRows / LEAF_SIZE + 2 * numberClasses + 1;
+		
+		nodeBegin = new int[capacity];
+		nodeEnd = new int[capacity];
+		nodeLeft = new int[capacity];
+		nodeRight = new int[capacity];
+		nodeDimension = new int[capacity];
+		boxes = new double[4 * capacity * numAttributes];
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Builds the index of the packed train data of a species
+	 * @param species the species, already packed
+	 * @param tolerance maximum relative error of an approximated node
+	 * @return the index
+	 */
+	public static DGCSpatialIndex build(DGCSpecies species, double tolerance)
+	{
+		int numberRows = species.getNumberRows();
+		int numAttributes = species.attributesNumber;
+		int[] classOffsets = species.getClassOffsets();
+		double[] data = species.getData();
+		
+		DGCSpatialIndex index = new DGCSpatialIndex(numberRows, numAttributes, species.classesNumber, tolerance);
+		
+		index.numerical = new boolean[numAttributes];
+		
+		for(int i = 0; i < numAttributes; i++)
+			index.numerical[i] = species.isNumerical(i);
+		
+		index.rows = new int[numberRows];
+		
+		for(int j = 0; j < numberRows; j++)
+			index.rows[j] = j;
+		
+		index.roots = new int[species.classesNumber];
+		
+		for(int c = 0; c < species.classesNumber; c++)
+			index.roots[c] = classOffsets[c] < classOffsets[c+1] ? index.split(data, numberRows, classOffsets[c], classOffsets[c+1]) : -1;
+		
+		// Row-major copy of the values in tree order
+		index.points = new double[numberRows * numAttributes];
+		index.positions = new int[numberRows];
+		
+		for(int p = 0; p < numberRows; p++)
+		{
+			for(int i = 0; i < numAttributes; i++)
+				index.points[p * numAttributes + i] = data[i * numberRows + index.rows[p]];
+			
+			index.positions[index.rows[p]] = p;
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * @return the maximum relative error of an approximated node
+	 */
+	public double getTolerance()
+	{
+		return tolerance;
+	}
+	
+	/**
+	 * Computes the gravitation of an attribute vector to a data class, without the class prior
+	 * @param query attribute values
+	 * @param self packed row of the query to exclude, -1 if the query is not a train row
+	 * @param Class data class
+	 * @param weights weight matrix, null for unit weights
+	 * @return the sum of the inverse weighted distances, Double.MAX_VALUE if one of them is zero
+	 */
+	public double gravity(double[] query, int self, int Class, double[] weights)
+	{
+		int root = roots[Class];
+		
+		if(root < 0)
+			return 0.0;
+		
+		int base = Class * numAttributes;
+		int selfPosition = self >= 0 ? positions[self] : -1;
+		
+		int[] stack = new int[STACK_SIZE];
+		int top = 0;
+		
+		stack[top++] = root;
+		
+		// Gravitation summed so far, lower bound of the approximated nodes and their maximum error
+		double gravity = 0.0, lowerGravity = 0.0, error = 0.0;
+		
+		while(top > 0)
+		{
+			int node = stack[--top];
+			int begin = nodeBegin[node], end = nodeEnd[node];
+			
+			if(selfPosition < begin || selfPosition >= end)
+			{
+				// Bounds of the weighted distance to the rows of the node and of its mean
+				double minDistance = 0.0, maxDistance = 0.0, minMean = 0.0, maxMean = 0.0;
+				
+				for(int i = 0; i < numAttributes; i++)
+				{
+					double weight = weights != null ? weights[base + i] : 1.0;
+					int box = 4 * (node * numAttributes + i);
+					
+					if(numerical[i])
+					{
+						double below = boxes[box] - query[i], above = query[i] - boxes[box + 1];
+						double gap = Math.max(0.0, Math.max(below, above));
+						double far = Math.max(-below, -above);
+						double center = boxes[box + 2] - query[i];
+						
+						minDistance += weight * (gap * gap);
+						maxDistance += weight * (far * far);
+						minMean += weight * (center * center + boxes[box + 3]);
+						maxMean += weight * (center * center + boxes[box + 3]);
+					}
+					else if(Double.isNaN(boxes[box]))
+					{
+						maxDistance += weight;
+						maxMean += weight;
+					}
+					else if(boxes[box] != query[i])
+					{
+						minDistance += weight;
+						maxDistance += weight;
+						minMean += weight;
+						maxMean += weight;
+					}
+				}
+				
+				if(minDistance > 0)
+				{
+					// The sum of 1/d is at least count/mean (Jensen) and at most the
+					// sum with the distances at both bounds keeping the lowest mean
+					int count = end - begin;
+					minMean = Math.min(maxDistance, Math.max(minDistance, minMean));
+					maxMean = Math.min(maxDistance, Math.max(minDistance, maxMean));
+					
+					double near = maxDistance > minDistance ? (maxDistance - minMean) / (maxDistance - minDistance) : 1.0;
+					double low = count / maxMean, high = count * (near / minDistance + (1.0 - near) / maxDistance);
+					double estimate = 0.5 * (low + high);
+					double nodeError = 0.5 * (high - low);
+					
+					// The error stays below the tolerance of the gravitation known so far
+					if(error + nodeError <= tolerance * (lowerGravity + low))
+					{
+						gravity += estimate;
+						lowerGravity += low;
+						error += nodeError;
+						continue;
+					}
+				}
+			}
+			
+			if(nodeLeft[node] < 0)
+			{
+				for(int p = begin; p < end; p++)
+				{
+					if(p == selfPosition)
+						continue;
+					
+					double distance = 0.0;
+					
+					for(int i = 0; i < numAttributes; i++)
+					{
+						double weight = weights != null ? weights[base + i] : 1.0;
+						double value = points[p * numAttributes + i];
+						
+						if(numerical[i])
+							distance += weight * ((value - query[i]) * (value - query[i]));
+						else
+							distance += value == query[i] ? 0 : weight;
+					}
+					
+					if(distance == 0)
+						return Double.MAX_VALUE;
+					
+					gravity += 1.0 / distance;
+					lowerGravity += 1.0 / distance;
+				}
+				
+				continue;
+			}
+			
+			// The child on the side of the query is visited first
+			int left = nodeLeft[node], right = nodeRight[node];
+			
+			if(query[nodeDimension[node]] <= boxes[4 * (left * numAttributes + nodeDimension[node]) + 1])
+			{
+				stack[top++] = right;
+				stack[top++] = left;
+			}
+			else
+			{
+				stack[top++] = left;
+				stack[top++] = right;
+			}
+		}
+		
+		return gravity;
+	}
+	
+	/**
+	 * Computes the gravitation of an attribute vector to the k nearest rows of
+	 * a data class under the weighted distance, without the class prior. Nodes
+	 * whose lower bound is not closer than the k-th nearest row found so far
+	 * are skipped.
+	 * @param query attribute values
+	 * @param self packed row of the query to exclude, -1 if the query is not a train row
+	 * @param Class data class
+	 * @param weights weight matrix, null for unit weights
+	 * @param k number of nearest rows
+	 * @return the sum of the inverse weighted distances, Double.MAX_VALUE if one of them is zero
+	 */
+	public double nearestGravity(double[] query, int self, int Class, double[] weights, int k)
+	{
+		int root = roots[Class];
+		
+		if(root < 0 || k <= 0)
+			return 0.0;
+		
+		int base = Class * numAttributes;
+		int selfPosition = self >= 0 ? positions[self] : -1;
+		
+		// Max-heap of the distances to the nearest rows found so far
+		double[] heap = new double[k];
+		int size = 0;
+		
+		int[] stack = new int[STACK_SIZE];
+		int top = 0;
+		
+		stack[top++] = root;
+		
+		while(top > 0)
+		{
+			int node = stack[--top];
+			
+			if(size == k && minDistance(node, query, weights, base) >= heap[0])
+				continue;
+			
+			if(nodeLeft[node] < 0)
+			{
+				for(int p = nodeBegin[node]; p < nodeEnd[node]; p++)
+				{
+					if(p == selfPosition)
+						continue;
+					
+					double distance = 0.0;
+					
+					for(int i = 0; i < numAttributes; i++)
+					{
+						double weight = weights != null ? weights[base + i] : 1.0;
+						double value = points[p * numAttributes + i];
+						
+						if(numerical[i])
+							distance += weight * ((value - query[i]) * (value - query[i]));
+						else
+							distance += value == query[i] ? 0 : weight;
+					}
+					
+					if(distance == 0)
+						return Double.MAX_VALUE;
+					
+					if(size < k)
+						push(heap, size++, distance);
+					else if(distance < heap[0])
+						replaceTop(heap, size, distance);
+				}
+				
+				continue;
+			}
+			
+			// The child on the side of the query is visited first
+			int left = nodeLeft[node], right = nodeRight[node];
+			
+			if(query[nodeDimension[node]] <= boxes[4 * (left * numAttributes + nodeDimension[node]) + 1])
+			{
+				stack[top++] = right;
+				stack[top++] = left;
+			}
+			else
+			{
+				stack[top++] = left;
+				stack[top++] = right;
+			}
+		}
+		
+		double gravity = 0.0;
+		
+		for(int j = 0; j < size; j++)
+			gravity += 1.0 / heap[j];
+		
+		return gravity;
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ---------------------------------------------- Private methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Creates the node of a range of tree positions and splits it at the median
+	 * of its widest numerical attribute
+	 * @param data packed attribute-major values
+	 * @param numberRows number of packed rows
+	 * @param begin first tree position
+	 * @param end last tree position (exclusive)
+	 * @return the node
+	 */
+	private int split(double[] data, int numberRows, int begin, int end)
+	{
+		int node = numberNodes++;
+		
+		nodeBegin[node] = begin;
+		nodeEnd[node] = end;
+		nodeLeft[node] = -1;
+		nodeRight[node] = -1;
+		
+		int widest = -1;
+		double width = 0.0;
+		
+		for(int i = 0; i < numAttributes; i++)
+		{
+			int box = 4 * (node * numAttributes + i);
+			int column = i * numberRows;
+			
+			double min = data[column + rows[begin]], max = min, sum = 0.0, squares = 0.0;
+			
+			for(int p = begin; p < end; p++)
+			{
+				double value = data[column + rows[p]];
+				
+				min = Math.min(min, value);
+				max = Math.max(max, value);
+				sum += value;
+				squares += value * value;
+			}
+			
+			if(numerical[i])
+			{
+				double average = sum / (end - begin);
+				
+				boxes[box] = min;
+				boxes[box + 1] = max;
+				boxes[box + 2] = average;
+				boxes[box + 3] = Math.max(0.0, squares / (end - begin) - average * average);
+				
+				if(max - min > width)
+				{
+					width = max - min;
+					widest = i;
+				}
+			}
+			else
+			{
+				boxes[box] = min == max ? min : Double.NaN;
+				boxes[box + 1] = boxes[box];
+			}
+		}
+		
+		if(end - begin <= LEAF_SIZE || widest < 0)
+			return node;
+		
+		int middle = (begin + end) >>> 1;
+		
+		select(data, widest * numberRows, begin, end - 1, middle);
+		
+		nodeDimension[node] = widest;
+		
+		nodeLeft[node] = split(data, numberRows, begin, middle);
+		nodeRight[node] = split(data, numberRows, middle, end);
+		
+		return node;
+	}
+	
+	/**
+	 * Computes the lower bound of the weighted distance between an attribute
+	 * vector and the rows of a node
+	 * @param node the node
+	 * @param query attribute values
+	 * @param weights weight matrix, null for unit weights
+	 * @param base position of the weight row of the class
+	 * @return the lower bound
+	 */
+	private double minDistance(int node, double[] query, double[] weights, int base)
+	{
+		double minDistance = 0.0;
+		
+		for(int i = 0; i < numAttributes; i++)
+		{
+			double weight = weights != null ? weights[base + i] : 1.0;
+			int box = 4 * (node * numAttributes + i);
+			
+			if(numerical[i])
+			{
+				double gap = Math.max(0.0, Math.max(boxes[box] - query[i], query[i] - boxes[box + 1]));
+				minDistance += weight * (gap * gap);
+			}
+			else if(!Double.isNaN(boxes[box]) && boxes[box] != query[i])
+				minDistance += weight;
+		}
+		
+		return minDistance;
+	}
+	
+	/**
+	 * Adds a distance to a max-heap
+	 * @param heap the heap
+	 * @param size number of distances in the heap
+	 * @param distance the distance
+	 */
+	private static void push(double[] heap, int size, double distance)
+	{
+		int j = size;
+		
+		while(j > 0 && heap[(j - 1) / 2] < distance)
+		{
+			heap[j] = heap[(j - 1) / 2];
+			j = (j - 1) / 2;
+		}
+		
+		heap[j] = distance;
+	}
+	
+	/**
+	 * Replaces the largest distance of a max-heap
+	 * @param heap the heap
+	 * @param size number of distances in the heap
+	 * @param distance the new distance
+	 */
+	private static void replaceTop(double[] heap, int size, double distance)
+	{
+		int j = 0;
+		
+		while(2 * j + 1 < size)
+		{
+			int child = 2 * j + 1;
+			
+			if(child + 1 < size && heap[child + 1] > heap[child])
+				child++;
+			
+			if(heap[child] <= distance)
+				break;
+			
+			heap[j] = heap[child];
+			j = child;
+		}
+		
+		heap[j] = distance;
+	}
+	
+	/**
+	 * Reorders a range of tree positions so that the k-th one holds the row
+	 * with the k-th smallest value of an attribute, smaller values before it
+	 * and larger ones after it
+	 * @param data packed attribute-major values
+	 * @param column position of the attribute column
+	 * @param left first tree position
+	 * @param right last tree position (inclusive)
+	 * @param k the position to select
+	 */
+	private void select(double[] data, int column, int left, int right, int k)
+	{
+		while(left < right)
+		{
+			double pivot = data[column + rows[(left + right) >>> 1]];
+			int i = left, j = right;
+			
+			while(i <= j)
+			{
+				while(data[column + rows[i]] < pivot)
+					i++;
+				
+				while(data[column + rows[j]] > pivot)
+					j--;
+				
+				if(i <= j)
+				{
+					int swap = rows[i];
+					rows[i] = rows[j];
+					rows[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			
+			if(k <= j)
+				right = j;
+			else if(k >= i)
+				left = i;
+			else
+				return;
+		}
+	}
+}
@@ -1,6 +1,9 @@
 package net.sf.jclec.problem.classification.dgc;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Random;
 
 import net.sf.jclec.problem.classification.classic.ClassicInstance;
 import net.sf.jclec.problem.util.dataset.IDataset;
@@ -50,6 +53,72 @@ public class DGCSpecies extends RealArrayIndividualSpecies
 
 	public int attributesNumber;
 	
+	// Packed train data
+	
+	/** Attribute-major matrix of train values, rows grouped by class */
+	
+	private double[] data;
+	
+	/** Single precision copy of the packed matrix, created on first use */
+	
+	private transient float[] floatData;
+	
+	/** Class label of each packed row */
+	
+	private int[] classes;
+	
+	/** First packed row of each class, the last position holds the number of rows */
+	
+	private int[] classOffsets;
+	
+	/** Weight of each packed row */
+	
+	private double[] instanceWeights;
+	
+	/** Packed row of each train example */
+	
+	private int[] rows;
+	
+	/** Packed row of each train example by reference, null for a sampled species */
+	
+	private IdentityHashMap<IExample, Integer> exampleRows;
+	
+	/** Row of the sample of each packed row of the sampled species, -1 if not sampled */
+	
+	private int[] sampledRows;
+	
+	/** Indices of the numerical attributes */
+	
+	private int[] numericalAttributes;
+	
+	/** Indices of the categorical attributes */
+	
+	private int[] categoricalAttributes;
+	
+	// Pairwise attribute difference cache
+	
+	/** Memory budget of the cache in bytes, 0 disables it */
+	
+	private long pairCacheBudget;
+	
+	/** Terms of the cache are quantized to one byte */
+	
+	private boolean pairCacheQuantized;
+	
+	/** Cache of the train pairs, null if disabled or over budget */
+	
+	private transient DGCPairCache pairCache;
+	
+	// Spatial index for approximate gravitation
+	
+	/** Maximum relative error of the approximated gravitation, negative disables the index */
+	
+	private double spatialIndexTolerance = -1;
+	
+	/** Spatial index of the train rows, null if disabled */
+	
+	private transient DGCSpatialIndex spatialIndex;
+	
 	/////////////////////////////////////////////////////////////////
 	// ------------------------------------------------- Constructors
 	/////////////////////////////////////////////////////////////////
@@ -156,6 +225,19 @@ public class DGCSpecies extends RealArrayIndividualSpecies
 			((ClassicInstance) instance).setValues(values);
 		}
 		
+		pack(instances);
+		
+		if(pairCacheBudget > 0)
+		{
+			pairCache = DGCPairCache.build(this, pairCacheBudget, pairCacheQuantized);
+			
+			if(pairCache == null)
+				System.out.println("Pair cache requires " + DGCPairCache.size(getNumberRows(), attributesNumber, pairCacheQuantized) + " bytes, distances are computed on the fly");
+		}
+		
+		if(spatialIndexTolerance >= 0)
+			spatialIndex = DGCSpatialIndex.build(this, spatialIndexTolerance);
+		
 		// Normalize test data values
 		
 		if(testSet != null)
@@ -176,6 +258,190 @@ public class DGCSpecies extends RealArrayIndividualSpecies
 		}
 	}
 	
+	/**
+	 * Packs the normalized train examples into a contiguous attribute-major
+	 * matrix, so that the value of attribute i for row j is at data[i*n + j].
+	 * Rows are grouped by class in their original relative order.
+	 * 
+	 * @param instances train examples
+	 */
+	private void pack(ArrayList<IExample> instances)
+	{
+		int numberRows = instances.size();
+		
+		classOffsets = new int[classesNumber + 1];
+		
+		for(int j = 0; j < classesNumber; j++)
+			classOffsets[j+1] = classOffsets[j] + numberInstances[j];
+		
+		data = new double[attributesNumber * numberRows];
+		floatData = null;
+		classes = new int[numberRows];
+		instanceWeights = new double[numberRows];
+		rows = new int[numberRows];
+		exampleRows = new IdentityHashMap<IExample, Integer>(numberRows);
+		
+		int[] next = classOffsets.clone();
+		
+		for(int j = 0; j < numberRows; j++)
+		{
+			ClassicInstance instance = (ClassicInstance) instances.get(j);
+			
+			int Class = (int) instance.getClassValue();
+			int row = next[Class]++;
+			
+			for(int i = 0; i < attributesNumber; i++)
+				data[i*numberRows + row] = instance.getValue(i);
+			
+			classes[row] = Class;
+			instanceWeights[row] = instance.getWeight();
+			rows[j] = row;
+			exampleRows.put(instance, row);
+		}
+		
+		int numberNumerical = 0;
+		
+		for(int i = 0; i < attributesNumber; i++)
+			if(numericalAttribute[i])
+				numberNumerical++;
+		
+		numericalAttributes = new int[numberNumerical];
+		categoricalAttributes = new int[attributesNumber - numberNumerical];
+		
+		for(int i = 0, n = 0, c = 0; i < attributesNumber; i++)
+			if(numericalAttribute[i])
+				numericalAttributes[n++] = i;
+			else
+				categoricalAttributes[c++] = i;
+	}
+	
+	/**
+	 * Draws a stratified sample of the packed rows. Each class keeps the given
+	 * fraction of its rows, and at least one if it is not empty, in their packed
+	 * order. The sample shares the metadata of this species and has no pair cache.
+	 * 
+	 * @param fraction fraction of the rows of each class
+	 * @param random random generator
+	 * @return the sample
+	 */
+	public DGCSpecies sample(double fraction, Random random)
+	{
+		int numberRows = getNumberRows();
+		
+		DGCSpecies sample = new DGCSpecies();
+		
+		sample.trainSet = trainSet;
+		sample.numericalAttribute = numericalAttribute;
+		sample.numericalAttributes = numericalAttributes;
+		sample.categoricalAttributes = categoricalAttributes;
+		sample.fmin = fmin;
+		sample.fmax = fmax;
+		sample.classesNumber = classesNumber;
+		sample.attributesNumber = attributesNumber;
+		sample.genotypeSchema = genotypeSchema;
+		
+		sample.numberInstances = new int[classesNumber];
+		sample.classOffsets = new int[classesNumber + 1];
+		sample.sampledRows = new int[numberRows];
+		
+		Arrays.fill(sample.sampledRows, -1);
+		
+		// Pick the rows of each class with a partial shuffle
+		boolean[] picked = new boolean[numberRows];
+		
+		for(int j = 0; j < classesNumber; j++)
+		{
+			int size = classOffsets[j+1] - classOffsets[j];
+			int count = size == 0 ? 0 : Math.min(size, Math.max(1, (int) Math.round(fraction * size)));
+			
+			int[] candidates = new int[size];
+			
+			for(int k = 0; k < size; k++)
+				candidates[k] = classOffsets[j] + k;
+			
+			for(int k = 0; k < count; k++)
+			{
+				int swap = k + random.nextInt(size - k);
+				int row = candidates[swap];
+				candidates[swap] = candidates[k];
+				candidates[k] = row;
+				picked[row] = true;
+			}
+			
+			sample.numberInstances[j] = count;
+			sample.classOffsets[j+1] = sample.classOffsets[j] + count;
+		}
+		
+		int sampleRows = sample.classOffsets[classesNumber];
+		
+		sample.data = new double[attributesNumber * sampleRows];
+		sample.classes = new int[sampleRows];
+		sample.instanceWeights = new double[sampleRows];
+		sample.rows = new int[sampleRows];
+		
+		for(int row = 0, next = 0; row < numberRows; row++)
+		{
+			if(!picked[row])
+				continue;
+			
+			for(int i = 0; i < attributesNumber; i++)
+				sample.data[i*sampleRows + next] = data[i*numberRows + row];
+			
+			sample.classes[next] = classes[row];
+			sample.instanceWeights[next] = instanceWeights[row];
+			sample.rows[next] = next;
+			sample.sampledRows[row] = next++;
+		}
+		
+		return sample;
+	}
+	
+	/**
+	 * @param row packed row of the species this sample was drawn from
+	 * @return its row in the sample, -1 if it was not sampled
+	 */
+	public int getSampledRow(int row) {
+		return sampledRows != null ? sampledRows[row] : row;
+	}
+	
+	/**
+	 * Enables the cache of the attribute differences between train pairs,
+	 * must be called before prepare
+	 * 
+	 * @param budget maximum memory of the cache in bytes, 0 disables it
+	 * @param quantized terms are quantized to one byte instead of stored as floats
+	 */
+	public void setPairCache(long budget, boolean quantized)
+	{
+		this.pairCacheBudget = budget;
+		this.pairCacheQuantized = quantized;
+	}
+	
+	/**
+	 * @return the cache of the train pairs, null if not available
+	 */
+	public DGCPairCache getPairCache() {
+		return pairCache;
+	}
+	
+	/**
+	 * Enables the spatial index used to approximate the gravitation on
+	 * low-dimensional data, must be called before prepare
+	 * 
+	 * @param tolerance maximum relative error of the gravitation, negative disables the index
+	 */
+	public void setSpatialIndex(double tolerance)
+	{
+		this.spatialIndexTolerance = tolerance;
+	}
+	
+	/**
+	 * @return the spatial index of the train rows, null if not available
+	 */
+	public DGCSpatialIndex getSpatialIndex() {
+		return spatialIndex;
+	}
+	
 	/**
 	 * @return the numberInstances
 	 */
@@ -191,6 +457,20 @@ public class DGCSpecies extends RealArrayIndividualSpecies
 		return numericalAttribute[attIndex];
 	}
 	
+	/**
+	 * @return the indices of the numerical attributes
+	 */
+	public int[] getNumericalAttributes() {
+		return numericalAttributes;
+	}
+	
+	/**
+	 * @return the indices of the categorical attributes
+	 */
+	public int[] getCategoricalAttributes() {
+		return categoricalAttributes;
+	}
+	
 	/**
 	 * @return the dataset
 	 */
@@ -198,6 +478,73 @@ public class DGCSpecies extends RealArrayIndividualSpecies
 		return trainSet;
 	}
 	
+	/**
+	 * @return the packed attribute-major train matrix
+	 */
+	public double[] getData() {
+		return data;
+	}
+	
+	/**
+	 * @return the packed attribute-major train matrix in single precision
+	 */
+	public synchronized float[] getFloatData() {
+		if(floatData == null)
+		{
+			floatData = new float[data.length];
+			
+			for(int i = 0; i < data.length; i++)
+				floatData[i] = (float) data[i];
+		}
+		
+		return floatData;
+	}
+	
+	/**
+	 * @return the class label of each packed row
+	 */
+	public int[] getClasses() {
+		return classes;
+	}
+	
+	/**
+	 * @return the weight of each packed row
+	 */
+	public double[] getInstanceWeights() {
+		return instanceWeights;
+	}
+	
+	/**
+	 * @return the first packed row of each class, followed by the number of rows
+	 */
+	public int[] getClassOffsets() {
+		return classOffsets;
+	}
+	
+	/**
+	 * @return the number of packed rows
+	 */
+	public int getNumberRows() {
+		return classes.length;
+	}
+	
+	/**
+	 * @param example index of a train example
+	 * @return its packed row
+	 */
+	public int getRow(int example) {
+		return rows[example];
+	}
+	
+	/**
+	 * @param example an example
+	 * @return its packed row if it is an example of the train set, -1 otherwise
+	 */
+	public int getRow(IExample example) {
+		Integer row = exampleRows == null ? null : exampleRows.get(example);
+		return row == null ? -1 : row;
+	}
+	
 	public void normalizeInstance(IExample instance)
 	{
 		double[] values = ((ClassicInstance) instance).getValues();
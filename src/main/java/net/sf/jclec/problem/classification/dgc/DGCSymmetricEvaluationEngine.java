@@ -0,0 +1,344 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Symmetric gravitation evaluation engine
+ *
+ * Evaluates a population on the train set (leave-one-out) visiting each
+ * unordered pair of train instances once. The attribute differences of the
+ * pair are computed once and weighted with the weight row of each of the two
+ * classes, giving the distance from a to b and from b to a, and 1/d is added
+ * to the gravitation of both instances.
+ *
+ * The pair matrix is split into tiles of row blocks. Tiles are scheduled in
+ * rounds following a round-robin tournament, so the tiles of a round never
+ * share a row block and each one writes its gravitations without
+ * synchronization. The order of the sums does not depend on the number of
+ * threads.
+ *
+ * Only the whole train set is evaluated by pairs. The tiled engine evaluates
+ * subsets of it, as the rounds of racing and the mini-batches, since the
+ * instances outside the subset are attractors but not queries. It also
+ * evaluates single precision and species with a pair cache.
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCSymmetricEvaluationEngine extends DGCEvaluationEngine
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	private static final long serialVersionUID = 3460817791846251627L;
+	
+	/** Number of rows of each tile side */
+	
+	private static final int TILE_SIZE = 128;
+	
+	/** Maximum number of individuals whose gravitations are kept at once */
+	
+	private static final int INDIVIDUAL_BLOCK = 16;
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	public DGCSymmetricEvaluationEngine(DGCSpecies species)
+	{
+		super(species);
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Classifies the train set with every individual of a population and adds
+	 * the confusion matrix of each individual to its fitness accumulator, since
+	 * the predictions are only known once every pair has been visited
+	 * @param pop population of weight matrices
+	 * @param accumulators fitness accumulator of each individual
+	 * @param executor evaluation executor
+	 */
+	@Override
+	public void evaluate(double[][] pop, DGCFitnessAccumulator[] accumulators, ForkJoinPool executor)
+	{
+		int[][][] confusionMatrices = evaluate(pop, executor);
+		
+		for(int k = 0; k < pop.length; k++)
+			accumulators[k].add(confusionMatrices[k]);
+	}
+	
+	/**
+	 * Classifies the train set with every individual of a population. Single
+	 * precision and the pair cache are evaluated by the tiled engine.
+	 * @param pop population of weight matrices
+	 * @param executor evaluation executor
+	 * @return the confusion matrix of each individual
+	 */
+	@Override
+	public int[][][] evaluate(double[][] pop, ForkJoinPool executor)
+	{
+		if(isSinglePrecision() || species.getPairCache() != null)
+			return super.evaluate(pop, executor);
+		
+		int numberRows = species.getNumberRows();
+		int numberClasses = species.classesNumber;
+		int numberBlocks = (numberRows + TILE_SIZE - 1) / TILE_SIZE;
+		
+		int[][][] confusionMatrices = new int[pop.length][numberClasses][numberClasses];
+		
+		for(int individualFrom = 0; individualFrom < pop.length; individualFrom += INDIVIDUAL_BLOCK)
+		{
+			int individualTo = Math.min(pop.length, individualFrom + INDIVIDUAL_BLOCK);
+			int numberIndividuals = individualTo - individualFrom;
+			
+			// Gravitation of each individual, instance and class
+			double[] gravities = new double[numberIndividuals * numberRows * numberClasses];
+			boolean[] saturated = new boolean[numberIndividuals * numberRows * numberClasses];
+			
+			// Tiles on the diagonal do not share row blocks
+			List<pairTask> tasks = new ArrayList<pairTask>();
+			
+			for(int block = 0; block < numberBlocks; block++)
+				tasks.add(new pairTask(pop, individualFrom, individualTo, block, block, gravities, saturated));
+			
+			run(tasks, executor);
+			
+			// Round-robin tournament of the row blocks, a bye is added if the number of blocks is odd
+			int players = numberBlocks % 2 == 0 ? numberBlocks : numberBlocks + 1;
+			
+			for(int round = 0; round < players - 1; round++)
+			{
+				tasks.clear();
+				
+				for(int i = 0; i < players / 2; i++)
+				{
+					int a = i == 0 ? players - 1 : (round + i) % (players - 1);
+					int b = (round - i + players - 1) % (players - 1);
+					
+					if(a < numberBlocks && b < numberBlocks)
+						tasks.add(new pairTask(pop, individualFrom, individualTo, Math.min(a, b), Math.max(a, b), gravities, saturated));
+				}
+				
+				run(tasks, executor);
+			}
+			
+			// Predict the class with the highest gravitation
+			for(int k = 0; k < numberIndividuals; k++)
+				for(int row = 0; row < numberRows; row++)
+				{
+					double maxGravity = -1;
+					int maxGravityClass = 0;
+					
+					for(int c = 0; c < numberClasses; c++)
+					{
+						int index = (k * numberRows + row) * numberClasses + c;
+						
+						double gravity = saturated[index] ? Double.MAX_VALUE : gravities[index];
+						
+						gravity *= 1.0 - ((species.getNumberInstances()[c]-1) / (double) numberRows);
+						
+						if(gravity > maxGravity)
+						{
+							maxGravity = gravity;
+							maxGravityClass = c;
+						}
+					}
+					
+					confusionMatrices[individualFrom + k][species.getClasses()[row]][maxGravityClass]++;
+				}
+		}
+		
+		return confusionMatrices;
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ---------------------------------------------- Private methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * Runs the tiles of a round in parallel
+	 * @param tasks the tiles
+	 * @param executor evaluation executor
+	 */
+	private void run(final List<pairTask> tasks, ForkJoinPool executor)
+	{
+		if(tasks.isEmpty())
+			return;
+		
+		if(ForkJoinTask.inForkJoinPool())
+			ForkJoinTask.invokeAll(tasks);
+		else
+			executor.invoke(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+	}
+	
+	/**
+	 * Adds the gravitation between the rows of two row blocks to both rows of
+	 * each pair. On the diagonal only the pairs above it are visited.
+	 * @param pop population of weight matrices
+	 * @param individualFrom first individual
+	 * @param individualTo last individual (exclusive)
+	 * @param blockA first row block
+	 * @param blockB second row block, not lower than the first
+	 * @param gravities gravitation of each individual of the block, row and class
+	 * @param saturated gravitation saturated by a zero distance
+	 */
+	private void evaluate(double[][] pop, int individualFrom, int individualTo, int blockA, int blockB, double[] gravities, boolean[] saturated)
+	{
+		double[] data = species.getData();
+		int[] classes = species.getClasses();
+		int[] classOffsets = species.getClassOffsets();
+		int[] numericalAttributes = species.getNumericalAttributes();
+		int[] categoricalAttributes = species.getCategoricalAttributes();
+		int numberRows = species.getNumberRows();
+		int numberClasses = species.classesNumber;
+		int numAttributes = species.attributesNumber;
+		int numberIndividuals = individualTo - individualFrom;
+		
+		int fromA = blockA * TILE_SIZE, toA = Math.min(numberRows, fromA + TILE_SIZE);
+		int fromB = blockB * TILE_SIZE, toB = Math.min(numberRows, fromB + TILE_SIZE);
+		
+		double[] terms = new double[TILE_SIZE];
+		double[] distancesAB = new double[numberIndividuals * TILE_SIZE];
+		double[] distancesBA = new double[numberIndividuals * TILE_SIZE];
+		
+		for(int a = fromA; a < toA; a++)
+		{
+			int classA = classes[a];
+			
+			// Rows of the second block paired with a, split by class
+			int begin = blockA == blockB ? a + 1 : fromB;
+			
+			while(begin < toB)
+			{
+				int classB = classes[begin];
+				int end = Math.min(toB, classOffsets[classB+1]);
+				int length = end - begin;
+				boolean sameClass = classA == classB;
+				
+				Arrays.fill(distancesAB, 0.0);
+				
+				if(!sameClass)
+					Arrays.fill(distancesBA, 0.0);
+				
+				// Attribute difference terms, weighted by the class of each side
+				for(int i : numericalAttributes)
+				{
+					kernel.numericalTerms(data, i * numberRows + begin, data[i * numberRows + a], terms, length);
+					
+					for(int k = 0; k < numberIndividuals; k++)
+					{
+						kernel.accumulate(distancesAB, k * TILE_SIZE, pop[individualFrom + k][classB * numAttributes + i], terms, 0, length);
+						
+						if(!sameClass)
+							kernel.accumulate(distancesBA, k * TILE_SIZE, pop[individualFrom + k][classA * numAttributes + i], terms, 0, length);
+					}
+				}
+				
+				for(int i : categoricalAttributes)
+				{
+					kernel.categoricalTerms(data, i * numberRows + begin, data[i * numberRows + a], terms, length);
+					
+					for(int k = 0; k < numberIndividuals; k++)
+					{
+						kernel.accumulate(distancesAB, k * TILE_SIZE, pop[individualFrom + k][classB * numAttributes + i], terms, 0, length);
+						
+						if(!sameClass)
+							kernel.accumulate(distancesBA, k * TILE_SIZE, pop[individualFrom + k][classA * numAttributes + i], terms, 0, length);
+					}
+				}
+				
+				double[] reverse = sameClass ? distancesAB : distancesBA;
+				
+				for(int k = 0; k < numberIndividuals; k++)
+				{
+					int base = k * TILE_SIZE;
+					
+					// Gravitation of b on a
+					int index = (k * numberRows + a) * numberClasses + classB;
+					
+					if(!saturated[index])
+					{
+						double gravity = gravities[index];
+						
+						for(int j = 0; j < length; j++)
+						{
+							if(distancesAB[base + j] == 0)
+							{
+								saturated[index] = true;
+								break;
+							}
+							
+							gravity += 1.0 / distancesAB[base + j];
+						}
+						
+						gravities[index] = gravity;
+					}
+					
+					// Gravitation of a on each b
+					for(int j = 0; j < length; j++)
+					{
+						index = (k * numberRows + begin + j) * numberClasses + classA;
+						
+						if(saturated[index])
+							continue;
+						
+						if(reverse[base + j] == 0)
+							saturated[index] = true;
+						else
+							gravities[index] += 1.0 / reverse[base + j];
+					}
+				}
+				
+				begin = end;
+			}
+		}
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------ Private tasks
+	/////////////////////////////////////////////////////////////////
+	
+	private class pairTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private double[][] pop;
+		private int individualFrom, individualTo;
+		private int blockA, blockB;
+		private double[] gravities;
+		private boolean[] saturated;
+		
+		public pairTask(double[][] pop, int individualFrom, int individualTo, int blockA, int blockB, double[] gravities, boolean[] saturated)
+		{
+			this.pop = pop;
+			this.individualFrom = individualFrom;
+			this.individualTo = individualTo;
+			this.blockA = blockA;
+			this.blockB = blockB;
+			this.gravities = gravities;
+			this.saturated = saturated;
+		}
+		
+		protected void compute()
+		{
+			evaluate(pop, individualFrom, individualTo, blockA, blockB, gravities, saturated);
+		}
+	}
+}
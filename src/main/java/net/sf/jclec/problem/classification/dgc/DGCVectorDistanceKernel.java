@@ -0,0 +1,206 @@
+package net.sf.jclec.problem.classification.dgc;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vectorized distance kernel
+ *
+ * Processes as many packed rows per instruction as lanes of the preferred
+ * vector shape of the platform (4 doubles with AVX2, 8 with AVX-512). The
+ * categorical mismatches are computed with a comparison mask. Products and
+ * sums are not fused, so results are the same as the scalar kernel.
+ *
+ * Requires running with --add-modules jdk.incubator.vector
+ *
+ * @author Alberto Cano
+ * @author Amelia Zafra
+ * @author Sebastian Ventura
+ */
+
+public class DGCVectorDistanceKernel extends DGCDistanceKernel
+{
+	/////////////////////////////////////////////////////////////////
+	// --------------------------------------------------- Properties
+	/////////////////////////////////////////////////////////////////
+	
+	/** Preferred vector shape */
+	
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	
+	/** Preferred vector shape in single precision, twice as many lanes */
+	
+	private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+	
+	/////////////////////////////////////////////////////////////////
+	// ------------------------------------------------- Constructors
+	/////////////////////////////////////////////////////////////////
+	
+	public DGCVectorDistanceKernel()
+	{
+		super();
+	}
+	
+	/////////////////////////////////////////////////////////////////
+	// ----------------------------------------------- Public methods
+	/////////////////////////////////////////////////////////////////
+	
+	/**
+	 * @return true if the platform has vectors of at least two doubles
+	 */
+	public static boolean isSupported()
+	{
+		return SPECIES.length() >= 2;
+	}
+	
+	@Override
+	public boolean isVectorized()
+	{
+		return true;
+	}
+	
+	@Override
+	public void numerical(double[] data, int column, double value, double weight, double[] distances, int offset, int length)
+	{
+		int bound = SPECIES.loopBound(length);
+		int j = 0;
+		
+		for(; j < bound; j += SPECIES.length())
+		{
+			DoubleVector diff = DoubleVector.fromArray(SPECIES, data, column + j).sub(value);
+			DoubleVector distance = DoubleVector.fromArray(SPECIES, distances, offset + j);
+			distance.add(diff.mul(diff).mul(weight)).intoArray(distances, offset + j);
+		}
+		
+		for(; j < length; j++)
+		{
+			double diff = data[column + j] - value;
+			distances[offset + j] += weight * (diff * diff);
+		}
+	}
+	
+	@Override
+	public void categorical(double[] data, int column, double value, double weight, double[] distances, int offset, int length)
+	{
+		DoubleVector weights = DoubleVector.broadcast(SPECIES, weight);
+		int bound = SPECIES.loopBound(length);
+		int j = 0;
+		
+		for(; j < bound; j += SPECIES.length())
+		{
+			VectorMask<Double> equal = DoubleVector.fromArray(SPECIES, data, column + j).compare(VectorOperators.EQ, value);
+			DoubleVector distance = DoubleVector.fromArray(SPECIES, distances, offset + j);
+			distance.add(weights.blend(0.0, equal)).intoArray(distances, offset + j);
+		}
+		
+		for(; j < length; j++)
+			distances[offset + j] += data[column + j] == value ? 0 : weight;
+	}
+	
+	@Override
+	public void numericalTerms(double[] data, int column, double value, double[] terms, int length)
+	{
+		int bound = SPECIES.loopBound(length);
+		int j = 0;
+		
+		for(; j < bound; j += SPECIES.length())
+		{
+			DoubleVector diff = DoubleVector.fromArray(SPECIES, data, column + j).sub(value);
+			diff.mul(diff).intoArray(terms, j);
+		}
+		
+		for(; j < length; j++)
+		{
+			double diff = data[column + j] - value;
+			terms[j] = diff * diff;
+		}
+	}
+	
+	@Override
+	public void categoricalTerms(double[] data, int column, double value, double[] terms, int length)
+	{
+		DoubleVector ones = DoubleVector.broadcast(SPECIES, 1.0);
+		int bound = SPECIES.loopBound(length);
+		int j = 0;
+		
+		for(; j < bound; j += SPECIES.length())
+		{
+			VectorMask<Double> equal = DoubleVector.fromArray(SPECIES, data, column + j).compare(VectorOperators.EQ, value);
+			ones.blend(0.0, equal).intoArray(terms, j);
+		}
+		
+		for(; j < length; j++)
+			terms[j] = data[column + j] == value ? 0 : 1;
+	}
+	
+	@Override
+	public void accumulate(double[] distances, int offset, double weight, double[] terms, int column, int length)
+	{
+		int bound = SPECIES.loopBound(length);
+		int j = 0;
+		
+		for(; j < bound; j += SPECIES.length())
+		{
+			DoubleVector distance = DoubleVector.fromArray(SPECIES, distances, offset + j);
+			distance.add(DoubleVector.fromArray(SPECIES, terms, column + j).mul(weight)).intoArray(distances, offset + j);
+		}
+		
+		for(; j < length; j++)
+			distances[offset + j] += weight * terms[column + j];
+	}
+	
+	@Override
+	public void numericalTerms(float[] data, int column, float value, float[] terms, int length)
+	{
+		int bound = FLOAT_SPECIES.loopBound(length);
+		int j = 0;
+		
+		for(; j < bound; j += FLOAT_SPECIES.length())
+		{
+			FloatVector diff = FloatVector.fromArray(FLOAT_SPECIES, data, column + j).sub(value);
+			diff.mul(diff).intoArray(terms, j);
+		}
+		
+		for(; j < length; j++)
+		{
+			float diff = data[column + j] - value;
+			terms[j] = diff * diff;
+		}
+	}
+	
+	@Override
+	public void categoricalTerms(float[] data, int column, float value, float[] terms, int length)
+	{
+		FloatVector ones = FloatVector.broadcast(FLOAT_SPECIES, 1.0f);
+		int bound = FLOAT_SPECIES.loopBound(length);
+		int j = 0;
+		
+		for(; j < bound; j += FLOAT_SPECIES.length())
+		{
+			VectorMask<Float> equal = FloatVector.fromArray(FLOAT_SPECIES, data, column + j).compare(VectorOperators.EQ, value);
+			ones.blend(0.0f, equal).intoArray(terms, j);
+		}
+		
+		for(; j < length; j++)
+			terms[j] = data[column + j] == value ? 0 : 1;
+	}
+	
+	@Override
+	public void accumulate(float[] distances, int offset, float weight, float[] terms, int column, int length)
+	{
+		int bound = FLOAT_SPECIES.loopBound(length);
+		int j = 0;
+		
+		for(; j < bound; j += FLOAT_SPECIES.length())
+		{
+			FloatVector distance = FloatVector.fromArray(FLOAT_SPECIES, distances, offset + j);
+			distance.add(FloatVector.fromArray(FLOAT_SPECIES, terms, column + j).mul(weight)).intoArray(distances, offset + j);
+		}
+		
+		for(; j < length; j++)
+			distances[offset + j] += weight * terms[column + j];
+	}
+}
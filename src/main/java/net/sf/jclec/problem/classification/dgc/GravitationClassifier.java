@@ -2,9 +2,10 @@ package net.sf.jclec.problem.classification.dgc;
 
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import net.sf.jclec.problem.classification.classic.ClassicInstance;
 import net.sf.jclec.problem.classification.classic.IClassicClassifier;
@@ -37,6 +38,26 @@ public class GravitationClassifier implements IClassicClassifier
 	private double[] predicted;
 
 	private DGCSpecies species;
+	
+	/** Evaluation executor */
+	
+	private transient ForkJoinPool executor;
+	
+	/** Number of instances classified by each task */
+	
+	private static final int BLOCK_SIZE = 32;
+	
+	/** Distance kernel */
+	
+	private static final DGCDistanceKernel kernel = DGCDistanceKernel.getInstance();
+	
+	/** Number of nearest instances of each class that attract a query, 0 for all of them */
+	
+	private int truncation;
+	
+	/** Spatial index used to find the nearest instances */
+	
+	private transient DGCSpatialIndex neighbourIndex;
 
 	/////////////////////////////////////////////////////////////////
 	// ------------------------------------------------- Constructors
@@ -63,6 +84,87 @@ public class GravitationClassifier implements IClassicClassifier
 		this.weights = weights;
 	}
 	
+	/**
+	 * Sets the executor used to classify datasets
+	 * @param executor evaluation executor, the common pool if null
+	 */
+	public void setExecutor(ForkJoinPool executor)
+	{
+		this.executor = executor;
+	}
+	
+	/**
+	 * @return the number of nearest instances of each class that attract a query, 0 for all of them
+	 */
+	public int getTruncation()
+	{
+		return truncation;
+	}
+	
+	/**
+	 * Restricts the gravitation to the k nearest instances of each class under
+	 * the weighted distance, found with the spatial index of the species (an
+	 * exact one is built if the species has none)
+	 * @param truncation number of nearest instances, 0 for all of them
+	 */
+	public void setTruncation(int truncation)
+	{
+		this.truncation = truncation;
+		
+		if(truncation > 0 && neighbourIndex == null)
+			neighbourIndex = species.getSpatialIndex() != null ? species.getSpatialIndex() : DGCSpatialIndex.build(species, 0);
+	}
+	
+	/**
+	 * Compares the truncated gravitation with the exact one on a dataset
+	 * @param dataset the dataset, train instances are excluded from their own gravitation
+	 * @return the mean relative difference of the gravitation to each class,
+	 * and the fraction of instances for which both predict the same class
+	 */
+	public double[] truncationReport(IDataset dataset)
+	{
+		ArrayList<IExample> instances = dataset.getExamples();
+		
+		double[] distances = new double[species.getNumberRows()];
+		double[] exact = new double[species.classesNumber];
+		double[] truncated = new double[species.classesNumber];
+		
+		double difference = 0.0;
+		int gravities = 0, agreements = 0;
+		
+		for(int i = 0; i < instances.size(); i++)
+		{
+			int self = dataset == species.getDataset() ? species.getRow(i) : species.getRow(instances.get(i));
+			double[] query = self >= 0 ? values(self) : values(instances.get(i));
+			
+			sweep(query, self, distances, exact);
+			
+			int exactClass = 0, truncatedClass = 0;
+			
+			for(int j = 0; j < species.classesNumber; j++)
+			{
+				truncated[j] = neighbourIndex.nearestGravity(query, self, j, weights, truncation) * prior(j);
+				
+				if(exact[j] > 0)
+				{
+					difference += exact[j] == truncated[j] ? 0.0 : Math.abs(exact[j] - truncated[j]) / exact[j];
+					gravities++;
+				}
+				
+				if(exact[j] > exact[exactClass])
+					exactClass = j;
+				
+				if(truncated[j] > truncated[truncatedClass])
+					truncatedClass = j;
+			}
+			
+			if(exactClass == truncatedClass)
+				agreements++;
+		}
+		
+		return new double[] {gravities == 0 ? 0.0 : difference / gravities, instances.isEmpty() ? 1.0 : agreements / (double) instances.size()};
+	}
+	
 	/**
 	 * Obtains the confusion matrix for a dataset
 	 * @param data the dataset
@@ -75,10 +177,18 @@ public class GravitationClassifier implements IClassicClassifier
 		
 		predicted = classify(dataset);
 		
-		for(int i = 0; i < dataset.getExamples().size(); i++) 
-    	{
-			confusionMatrix[(int) ((ClassicInstance) dataset.getExamples().get(i)).getClassValue()][(int) predicted[i]]++;
-    	}
+		if(dataset == species.getDataset())
+		{
+			int[] classes = species.getClasses();
+			
+			for(int i = 0; i < predicted.length; i++)
+				confusionMatrix[classes[species.getRow(i)]][(int) predicted[i]]++;
+		}
+		else
+			for(int i = 0; i < dataset.getExamples().size(); i++) 
+	    	{
+				confusionMatrix[(int) ((ClassicInstance) dataset.getExamples().get(i)).getClassValue()][(int) predicted[i]]++;
+	    	}
 		
 		return confusionMatrix;
 	}
@@ -91,25 +201,12 @@ public class GravitationClassifier implements IClassicClassifier
 	@Override
 	public double classify(IExample instance)
 	{
-		double maxGravity = -1;
-		int maxGravityClass = 0;
-
-		for(int i = 0; i < species.getDataset().getMetadata().numberOfClasses(); i++)
-		{
-			double gravity = gravity(instance, i);
-			
-			if(gravity > maxGravity)
-			{
-				maxGravity = gravity;
-				maxGravityClass = i;
-			}
-		}
-		
-		return maxGravityClass;
+		return classify(values(instance), species.getRow(instance), new double[species.getNumberRows()]);
 	}
 	
 	/**
-	 * Classifies all the instances of a dataset in parallel using as many threads as CPU cores
+	 * Classifies all the instances of a dataset in parallel using the evaluation executor.
+	 * When called from an evaluation task the blocks are forked into the same pool.
 	 * @param dataset the dataset
 	 * @return array of predicted classes
 	 */
@@ -120,89 +217,285 @@ public class GravitationClassifier implements IClassicClassifier
 		
 		predicted = new double[instances.size()];
 		
-        ExecutorService threadExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		classificationTask task = new classificationTask(predicted, dataset == species.getDataset() ? null : instances, 0, instances.size());
 		
-		for(int i = 0; i < instances.size(); i++)
-			threadExecutor.execute(new classificationThread(i, instances.get(i)));
+		if(ForkJoinTask.inForkJoinPool())
+			task.invoke();
+		else
+			(executor != null ? executor : ForkJoinPool.commonPool()).invoke(task);
+		
+		return predicted;		
+	}
+	
+	/**
+	 * Computes the gravitation of an instance to a data class, a train
+	 * instance is excluded from its own class by reference
+	 * @param instance The instance
+	 * @param Class data class
+	 * @return the gravitation
+	 */
+	public double gravity(IExample instance, int Class)
+	{
+		return gravity(values(instance), species.getRow(instance), Class, new double[species.getNumberRows()]);
+	}
+	
+	/**
+	 * Computes the leave-one-out gravitation of a train instance to a data class,
+	 * the instance is excluded from its own class by its index. Same result as
+	 * gravity(IExample, int) for the train instance, without looking up its row
+	 * @param queryIndex index of the instance in the train set
+	 * @param Class data class
+	 * @return the gravitation
+	 */
+	public double gravity(int queryIndex, int Class)
+	{
+		int row = species.getRow(queryIndex);
+		
+		return gravity(values(row), row, Class, new double[species.getNumberRows()]);
+	}
+	
+	/**
+	 * Computes the gravitation of an instance to every data class
+	 * @param instance The instance
+	 * @return the gravitation to each class
+	 */
+	public double[] gravity(IExample instance)
+	{
+		double[] gravities = new double[species.classesNumber];
 		
-		threadExecutor.shutdown();
+		gravity(values(instance), species.getRow(instance), new double[species.getNumberRows()], gravities);
 		
-		try
+		return gravities;
+	}
+	
+	/**
+	 * Computes the class distribution of an instance from its gravitation to
+	 * every data class, obtained in the same pass that finds the predicted class
+	 * @param instance The instance
+	 * @param temperature calibration temperature, 1 for the normalized gravitation
+	 * @return the probability of each class
+	 */
+	public double[] distribution(IExample instance, double temperature)
+	{
+		double[] distribution = gravity(instance);
+		
+		DGCScorer.normalize(distribution, temperature);
+		
+		return distribution;
+	}
+	
+	/**
+	 * Predicts the class with the highest gravitation for a normalized attribute vector
+	 * @param query attribute values
+	 * @param self packed row of the query to exclude, -1 if the query is not a train row
+	 * @param distances buffer of at least as many positions as packed rows
+	 * @return predicted class
+	 */
+	private double classify(double[] query, int self, double[] distances)
+	{
+		double[] gravities = new double[species.classesNumber];
+		
+		gravity(query, self, distances, gravities);
+		
+		double maxGravity = -1;
+		int maxGravityClass = 0;
+
+		for(int i = 0; i < gravities.length; i++)
+		{
+			if(gravities[i] > maxGravity)
+			{
+				maxGravity = gravities[i];
+				maxGravityClass = i;
+			}
+		}
+		
+		return maxGravityClass;
+	}
+	
+	/**
+	 * Computes the gravitation of an attribute vector to every data class,
+	 * restricted to the nearest instances if truncated, approximated with the
+	 * spatial index if the species has one, or exact otherwise
+	 * @param query attribute values
+	 * @param self packed row of the query to exclude, -1 if the query is not a train row
+	 * @param distances buffer of at least as many positions as packed rows
+	 * @param gravities the gravitation to each class
+	 */
+	private void gravity(double[] query, int self, double[] distances, double[] gravities)
+	{
+		DGCSpatialIndex index = species.getSpatialIndex();
+		
+		if(truncation > 0)
 		{
-			if (!threadExecutor.awaitTermination(30, TimeUnit.DAYS))
-				System.out.println("Threadpool timeout occurred");
+			for(int j = 0; j < species.classesNumber; j++)
+				gravities[j] = neighbourIndex.nearestGravity(query, self, j, weights, truncation) * prior(j);
 		}
-		catch (InterruptedException ie)
+		else if(index != null)
 		{
-			System.out.println("Threadpool prematurely terminated due to interruption in thread that created pool");
+			for(int j = 0; j < species.classesNumber; j++)
+				gravities[j] = index.gravity(query, self, j, weights) * prior(j);
 		}
+		else
+			sweep(query, self, distances, gravities);
+	}
+	
+	/**
+	 * Computes the exact gravitation of an attribute vector to every data class in
+	 * a single sweep over the packed columns, each class reading only its own block
+	 * @param query attribute values
+	 * @param self packed row of the query to exclude, -1 if the query is not a train row
+	 * @param distances buffer of at least as many positions as packed rows
+	 * @param gravities the gravitation to each class
+	 */
+	private void sweep(double[] query, int self, double[] distances, double[] gravities)
+	{
+		int[] classOffsets = species.getClassOffsets();
 		
-		return predicted;		
+		Arrays.fill(distances, 0, species.getNumberRows(), 0.0);
+		
+		for(int j = 0; j < species.classesNumber; j++)
+			distances(query, j, classOffsets[j], classOffsets[j+1], distances);
+		
+		for(int j = 0; j < species.classesNumber; j++)
+			gravities[j] = gravity(self, j, distances);
 	}
 	
 	/**
-	 * Computes the gravitation of an instance to a data class
-	 * @param instance The instance
+	 * Computes the gravitation of an attribute vector to a data class
+	 * @param query attribute values
+	 * @param self packed row of the query to exclude, -1 if the query is not a train row
 	 * @param Class data class
+	 * @param distances buffer of at least as many positions as packed rows
 	 * @return the gravitation
 	 */
-	public double gravity(IExample instance, int Class)
+	private double gravity(double[] query, int self, int Class, double[] distances)
 	{
-		ArrayList<IExample> instances = species.getDataset().getExamples();
+		if(truncation > 0)
+			return neighbourIndex.nearestGravity(query, self, Class, weights, truncation) * prior(Class);
+		
+		if(species.getSpatialIndex() != null)
+			return species.getSpatialIndex().gravity(query, self, Class, weights) * prior(Class);
+		
+		int begin = species.getClassOffsets()[Class];
+		int end = species.getClassOffsets()[Class+1];
+		
+		Arrays.fill(distances, begin, end, 0.0);
+		
+		distances(query, Class, begin, end, distances);
+		
+		return gravity(self, Class, distances);
+	}
+	
+	/**
+	 * Accumulates the weighted distances between an attribute vector and the
+	 * packed rows of a class block, numerical and categorical attributes in
+	 * separate passes
+	 * @param query attribute values
+	 * @param Class data class of the block
+	 * @param begin first row of the block
+	 * @param end last row of the block (exclusive)
+	 * @param distances distance accumulators
+	 */
+	private void distances(double[] query, int Class, int begin, int end, double[] distances)
+	{
+		double[] data = species.getData();
+		int numberRows = species.getNumberRows();
+		int base = Class * species.attributesNumber;
+		
+		for(int i : species.getNumericalAttributes())
+			kernel.numerical(data, i * numberRows + begin, query[i], weights != null ? weights[base + i] : 1.0, distances, begin, end - begin);
+		
+		for(int i : species.getCategoricalAttributes())
+			kernel.categorical(data, i * numberRows + begin, query[i], weights != null ? weights[base + i] : 1.0, distances, begin, end - begin);
+	}
+	
+	/**
+	 * Sums the gravitation of a class block from its accumulated distances
+	 * @param self packed row of the query to exclude, -1 if the query is not a train row
+	 * @param Class data class
+	 * @param distances accumulated distances
+	 * @return the gravitation
+	 */
+	private double gravity(int self, int Class, double[] distances)
+	{
+		int begin = species.getClassOffsets()[Class];
+		int end = species.getClassOffsets()[Class+1];
+		
+		// The query row, if it belongs to the block, splits it in two ranges
+		int split = self >= begin && self < end ? self : end;
 		
 		double gravity = 0.0;
 		
 		// Compute the gravitation using the distance to the other instances belonging to the data class
-		for(int i = 0; i < instances.size(); i++)
-			if(((ClassicInstance) instances.get(i)).getClassValue() == Class && instances.get(i) != instance)
+		ranges:
+		for(int first = begin, last = split; first < end; first = last + 1, last = end)
+			for(int j = first; j < last; j++)
 			{
-				double distance = distance(instance, instances.get(i));
-				
-				if(distance == 0)
+				if(distances[j] == 0)
 				{
 					gravity = Double.MAX_VALUE;
-					i = instances.size();
+					break ranges;
 				}
-				else
-					gravity += 1.0 / distance;
+				
+				gravity += 1.0 / distances[j];
 			}
 		
-		gravity *= 1.0 - ((species.getNumberInstances()[Class]-1) / (double) species.getDataset().getExamples().size());
+		gravity *= prior(Class);
 		
 		return gravity;
 	}
 	
 	/**
-	 * Computes the distance between to instances
-	 * @param inst1 instance 1
-	 * @param inst2 instance 2
-	 * @return the distance
+	 * Computes the factor that compensates the number of instances of a data class
+	 * @param Class data class
+	 * @return the factor
 	 */
-	private double distance(IExample inst1, IExample inst2)
+	private double prior(int Class)
 	{
-		int numAttributes = species.attributesNumber;
-		
-		double distance = 0.0;
-		
-		// If the classifier consider weights
-		if(weights != null)
-			for(int i = 0; i < numAttributes; i++)
-				// If the attribute is numerical
-				if(species.isNumerical(i))
-					distance += weights[(int) ((ClassicInstance) inst2).getClassValue() * numAttributes + i] * Math.pow((inst2.getValue(i) - inst1.getValue(i)), 2);
-				else
-					distance += weights[(int) ((ClassicInstance) inst2).getClassValue() * numAttributes + i] * (inst2.getValue(i) == inst1.getValue(i) ? 0 : 1);
-		else
-			for(int i = 0; i < numAttributes; i++)
-				// If the attribute is numerical
-				if(species.isNumerical(i))
-					distance += Math.pow((inst2.getValue(i) - inst1.getValue(i)), 2);
-				else
-					distance += inst2.getValue(i) == inst1.getValue(i) ? 0 : 1;
-		
-		return distance;
+		return 1.0 - ((species.getNumberInstances()[Class]-1) / (double) species.getNumberRows());
+	}
+	
+	/**
+	 * Copies the attribute values of an instance
+	 * @param instance the instance
+	 * @return attribute values
+	 */
+	private double[] values(IExample instance)
+	{
+		double[] values = new double[species.attributesNumber];
+		
+		for(int i = 0; i < values.length; i++)
+			values[i] = instance.getValue(i);
+		
+		return values;
+	}
+	
+	/**
+	 * Copies the attribute values of a packed train row
+	 * @param row the packed row
+	 * @return attribute values
+	 */
+	private double[] values(int row)
+	{
+		double[] data = species.getData();
+		double[] values = new double[species.attributesNumber];
+		
+		for(int i = 0; i < values.length; i++)
+			values[i] = data[i * species.getNumberRows() + row];
+		
+		return values;
 	}
 
+	/**
+	 * Compiles the classifier into a scorer for serving, which classifies raw
+	 * attribute values with the exact gravitation
+	 * @return the scorer
+	 */
+	public DGCScorer compile()
+	{
+		return new DGCScorer(species, weights);
+	}
+	
 	/**
 	 * Returns a copy of the classifier
 	 * @return classifier copy
@@ -212,6 +505,8 @@ public class GravitationClassifier implements IClassicClassifier
 	{
 		GravitationClassifier copy = new GravitationClassifier(species);
 		copy.setWeights(weights.clone());
+		copy.truncation = truncation;
+		copy.neighbourIndex = neighbourIndex;
 		return copy;
 	}
 	
@@ -251,20 +546,44 @@ public class GravitationClassifier implements IClassicClassifier
 		return classifier;
 	}
 	
-	private class classificationThread extends Thread
+	private class classificationTask extends RecursiveAction
 	{
-		private int index;
-		private IExample instance;
+		private static final long serialVersionUID = 1L;
+		
+		private double[] predicted;
+		private ArrayList<IExample> instances;
+		private int from, to;
 		
-	    public classificationThread(int index, IExample instance)
+	    public classificationTask(double[] predicted, ArrayList<IExample> instances, int from, int to)
 	    {
-	    	this.index = index;
-	        this.instance = instance;
+	    	this.predicted = predicted;
+	        this.instances = instances;
+	        this.from = from;
+	        this.to = to;
 	    }
 	    
-	    public void run()
+	    protected void compute()
 	    {
-	    	predicted[index] = classify(instance);
+	    	if(to - from > BLOCK_SIZE)
+	    	{
+	    		int middle = (from + to) >>> 1;
+	    		invokeAll(new classificationTask(predicted, instances, from, middle), new classificationTask(predicted, instances, middle, to));
+	    		return;
+	    	}
+	    	
+	    	double[] distances = new double[species.getNumberRows()];
+	    	
+	    	for(int i = from; i < to; i++)
+	    	{
+	    		// Train instances are read from the packed rows and excluded from their own gravitation
+	    		if(instances == null)
+	    		{
+	    			int row = species.getRow(i);
+	    			predicted[i] = classify(values(row), row, distances);
+	    		}
+	    		else
+	    			predicted[i] = classify(values(instances.get(i)), species.getRow(instances.get(i)), distances);
+	    	}
 	    }
     }
 }
\ No newline at end of file
@@ -10,6 +10,8 @@ import net.sf.jclec.problem.classification.classic.ClassicInstance;
 import net.sf.jclec.problem.classification.dgc.DGCAlgorithm;
 import net.sf.jclec.problem.classification.dgc.DGCEvaluator;
 import net.sf.jclec.problem.classification.dgc.DGCEvaluatorAUC;
+import net.sf.jclec.problem.classification.dgc.DGCFitnessMetrics;
+import net.sf.jclec.problem.classification.dgc.DGCScorer;
 import net.sf.jclec.problem.classification.dgc.DGCSpecies;
 import net.sf.jclec.problem.classification.dgc.GravitationClassifier;
 import net.sf.jclec.problem.util.dataset.ArffDataSet;
@@ -56,6 +58,38 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 
 	protected int seed = 123456789;
 	
+	protected int threads = 0;
+	
+	protected int pairCacheBudget = 0;
+	
+	protected boolean pairCacheQuantized = false;
+	
+	protected boolean singlePrecision = false;
+	
+	protected boolean symmetricEvaluation = false;
+	
+	protected boolean racing = false;
+	
+	protected int miniBatchSize = 0;
+	
+	protected double miniBatchAttractors = 1.0;
+	
+	protected double spatialIndexTolerance = -1;
+	
+	protected int truncation = 0;
+	
+	protected double temperature = 1.0;
+	
+	protected String fitnessMetric = "";
+	
+	protected String costMatrix = "";
+	
+	protected boolean pipelinedSampling = false;
+	
+	protected boolean parallelEigendecomposition = false;
+	
+	protected transient DGCScorer scorer;
+	
 	protected ArffDataSet dataset;
 
 	protected ClassicClassificationMetadata metadata;
@@ -116,6 +150,233 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 		this.seed = seed;
 	}
 	
+	/**
+	 * @return the number of evaluation threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @param threads the number of evaluation threads to set, 0 for as many as CPU cores
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+	
+	/**
+	 * @return the pair cache memory budget in MB
+	 */
+	public int getPairCacheBudget() {
+		return pairCacheBudget;
+	}
+
+	/**
+	 * @param pairCacheBudget the pair cache memory budget in MB to set, 0 disables the cache
+	 */
+	public void setPairCacheBudget(int pairCacheBudget) {
+		this.pairCacheBudget = pairCacheBudget;
+	}
+
+	/**
+	 * @return true if the pair cache terms are quantized to one byte
+	 */
+	public boolean getPairCacheQuantized() {
+		return pairCacheQuantized;
+	}
+
+	/**
+	 * @param pairCacheQuantized quantize the pair cache terms to one byte
+	 */
+	public void setPairCacheQuantized(boolean pairCacheQuantized) {
+		this.pairCacheQuantized = pairCacheQuantized;
+	}
+	
+	/**
+	 * @return true if the population is evaluated in single precision
+	 */
+	public boolean getSinglePrecision() {
+		return singlePrecision;
+	}
+	
+	/**
+	 * @param singlePrecision evaluate the population in single precision
+	 */
+	public void setSinglePrecision(boolean singlePrecision) {
+		this.singlePrecision = singlePrecision;
+	}
+	
+	/**
+	 * @return true if each pair of train instances is visited once during the evaluation
+	 */
+	public boolean getSymmetricEvaluation() {
+		return symmetricEvaluation;
+	}
+	
+	/**
+	 * @param symmetricEvaluation visit each pair of train instances once during the evaluation
+	 */
+	public void setSymmetricEvaluation(boolean symmetricEvaluation) {
+		this.symmetricEvaluation = symmetricEvaluation;
+	}
+	
+	/**
+	 * @return true if the individuals that cannot be parents are not fully evaluated
+	 */
+	public boolean getRacing() {
+		return racing;
+	}
+	
+	/**
+	 * @param racing stop evaluating the individuals that cannot be parents
+	 */
+	public void setRacing(boolean racing) {
+		this.racing = racing;
+	}
+	
+	/**
+	 * @return the initial number of train instances classified in each generation
+	 */
+	public int getMiniBatchSize() {
+		return miniBatchSize;
+	}
+	
+	/**
+	 * @param miniBatchSize initial number of train instances classified in each generation, 0 classifies the whole train set
+	 */
+	public void setMiniBatchSize(int miniBatchSize) {
+		this.miniBatchSize = miniBatchSize;
+	}
+	
+	/**
+	 * @return the initial fraction of the train instances that attract the mini-batch
+	 */
+	public double getMiniBatchAttractors() {
+		return miniBatchAttractors;
+	}
+	
+	/**
+	 * @param miniBatchAttractors initial fraction of the train instances of each class that attract the mini-batch
+	 */
+	public void setMiniBatchAttractors(double miniBatchAttractors) {
+		this.miniBatchAttractors = miniBatchAttractors;
+	}
+	
+	/**
+	 * @return the maximum relative error of the gravitation approximated by the spatial index
+	 */
+	public double getSpatialIndexTolerance() {
+		return spatialIndexTolerance;
+	}
+	
+	/**
+	 * @param spatialIndexTolerance maximum relative error of the gravitation approximated by the spatial index, negative disables the index
+	 */
+	public void setSpatialIndexTolerance(double spatialIndexTolerance) {
+		this.spatialIndexTolerance = spatialIndexTolerance;
+	}
+	
+	/**
+	 * @return the number of nearest instances of each class that attract a query at inference
+	 */
+	public int getTruncation() {
+		return truncation;
+	}
+	
+	/**
+	 * @param truncation number of nearest instances of each class that attract a query at inference, 0 for all of them
+	 */
+	public void setTruncation(int truncation) {
+		this.truncation = truncation;
+	}
+	
+	/**
+	 * Compares the top-k gravitation of the trained classifier with the exact one
+	 * on the train set, each instance excluded from its own gravitation
+	 * @return the mean relative difference of the gravitation to each class, and
+	 * the fraction of instances for which both predict the same class, null without truncation
+	 */
+	public double[] getTruncationReport() {
+		if(truncation == 0)
+			return null;
+		
+		return ((GravitationClassifier) algorithm.getClassifier()).truncationReport(algorithm.getTrainSet());
+	}
+	
+	/**
+	 * @return the temperature of the class distribution
+	 */
+	public double getTemperature() {
+		return temperature;
+	}
+	
+	/**
+	 * @param temperature temperature of the class distribution, below 1 sharpens and above 1 smooths the normalized gravitation
+	 * @throws IllegalArgumentException if the temperature is not positive
+	 */
+	public void setTemperature(double temperature) {
+		if(!(temperature > 0))
+			throw new IllegalArgumentException("The temperature must be positive: " + temperature);
+		
+		this.temperature = temperature;
+	}
+	
+	/**
+	 * @return true if the Gaussian draws of the next generation are generated during the evaluation
+	 */
+	public boolean getPipelinedSampling() {
+		return pipelinedSampling;
+	}
+	
+	/**
+	 * @param pipelinedSampling generate the Gaussian draws of the next generation during the evaluation and sample the population in parallel
+	 */
+	public void setPipelinedSampling(boolean pipelinedSampling) {
+		this.pipelinedSampling = pipelinedSampling;
+	}
+	
+	/**
+	 * @return true if the covariance matrix is decomposed in parallel by divide and conquer
+	 */
+	public boolean getParallelEigendecomposition() {
+		return parallelEigendecomposition;
+	}
+	
+	/**
+	 * @param parallelEigendecomposition decompose the covariance matrix in parallel by divide and conquer
+	 */
+	public void setParallelEigendecomposition(boolean parallelEigendecomposition) {
+		this.parallelEigendecomposition = parallelEigendecomposition;
+	}
+	
+	/**
+	 * @return the name of the fitness metric, empty for the metric of the data type
+	 */
+	public String getFitnessMetric() {
+		return fitnessMetric;
+	}
+	
+	/**
+	 * @param fitnessMetric name of the fitness metric registered in DGCFitnessMetrics, empty for the metric of the data type
+	 */
+	public void setFitnessMetric(String fitnessMetric) {
+		this.fitnessMetric = fitnessMetric;
+	}
+	
+	/**
+	 * @return the cost matrix of the cost-sensitive metric
+	 */
+	public String getCostMatrix() {
+		return costMatrix;
+	}
+	
+	/**
+	 * @param costMatrix cost matrix of the cost-sensitive metric, by rows as in "[0 1; 5 0]", empty for unit costs
+	 */
+	public void setCostMatrix(String costMatrix) {
+		this.costMatrix = costMatrix;
+	}
+	
 	/**
 	 * @return the problem selector tag
 	 */
@@ -136,6 +397,17 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 	 * 
 	 * @return an enumeration of all the available options
 	 */
+	@Override
+	public Enumeration<Option> listOptions()
+	{
+		return listCommonOptions().elements();
+	}
+	
+	/**
+	 * Returns the options of the classifier
+	 * 
+	 * @return a vector of all the available options
+	 */
 	public Vector<Option> listCommonOptions()
 	{
 		Vector<Option> newVector = new Vector<Option>();
@@ -144,6 +416,21 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 		newVector.addElement(new Option("\tSet the number of generations " +"\n\t(default 500)", "G",1,"-G <number of generations>"));
 		newVector.addElement(new Option("\tSet seed" +"\n\t(default 123456789)", "D",1,"-D <seed>"));
 		newVector.addElement(new Option("\tSet data type" +"\n", "S",1,"-S <data type>"));
+		newVector.addElement(new Option("\tSet the number of evaluation threads" +"\n\t(default number of CPU cores)", "T",1,"-T <number of threads>"));
+		newVector.addElement(new Option("\tSet the pair cache memory budget in MB" +"\n\t(default 0, disabled)", "C",1,"-C <budget>"));
+		newVector.addElement(new Option("\tQuantize the pair cache terms to one byte" +"\n", "Q",0,"-Q"));
+		newVector.addElement(new Option("\tEvaluate the population in single precision" +"\n", "F",0,"-F"));
+		newVector.addElement(new Option("\tVisit each pair of train instances once during the evaluation, not with -I," +"\n\tnot used by -R, -B, single precision and the pair cache", "Y",0,"-Y"));
+		newVector.addElement(new Option("\tStop evaluating the individuals that cannot be parents (error rate only)" +"\n", "R",0,"-R"));
+		newVector.addElement(new Option("\tSet the initial mini-batch size, it grows as the search converges" +"\n\t(default 0, whole train set)", "B",1,"-B <mini-batch size>"));
+		newVector.addElement(new Option("\tSet the initial fraction of the train set that attracts the mini-batch," +"\n\tbelow 1 without -Y, -I or the pair cache (default 1.0)", "A",1,"-A <fraction>"));
+		newVector.addElement(new Option("\tApproximate the gravitation with a spatial index within a relative error, for low-dimensional data," +"\n\tnot with -Y (default -1, disabled)", "I",1,"-I <tolerance>"));
+		newVector.addElement(new Option("\tClassify with the k nearest instances of each class, small k changes the predictions," +"\n\tsee getTruncationReport (default 0, all the instances)", "K",1,"-K <k>"));
+		newVector.addElement(new Option("\tSet the positive temperature of the class distribution" +"\n\t(default 1.0, normalized gravitation)", "E",1,"-E <temperature>"));
+		newVector.addElement(new Option("\tSet the fitness metric: " + DGCFitnessMetrics.names() +"\n\t(default error for standard data, AUC for imbalanced data)", "O",1,"-O <metric>"));
+		newVector.addElement(new Option("\tSet the cost matrix of the cost metric, by rows" +"\n\t(default unit costs)", "X",1,"-X <[0 1; 5 0]>"));
+		newVector.addElement(new Option("\tOverlap the CMA-ES sampling with the evaluation, generating the Gaussian draws" +"\n\tof the next generation while the population is evaluated", "L",0,"-L"));
+		newVector.addElement(new Option("\tDecompose the covariance matrix in parallel by divide and conquer" +"\n", "Z",0,"-Z"));
 
 		return newVector;
 	}
@@ -163,8 +450,54 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 	 * <pre> -S &lt;seed&gt;
 	 *  The seed for random values (default: 111111111).</pre>
 	 *  
-	 * <pre> -C &lt;crossover probability&gt;
-	 *  The crossover probability (default: 0.5).</pre>
+	 * <pre> -T &lt;number of threads&gt;
+	 *  The number of evaluation threads (default: number of CPU cores).</pre>
+	 *  
+	 * <pre> -C &lt;budget&gt;
+	 *  The pair cache memory budget in MB (default: 0, disabled).</pre>
+	 *  
+	 * <pre> -Q
+	 *  Quantize the pair cache terms to one byte.</pre>
+	 *  
+	 * <pre> -F
+	 *  Evaluate the population in single precision.</pre>
+	 *  
+	 * <pre> -Y
+	 *  Visit each pair of train instances once during the evaluation, not with -I. Racing (-R),
+	 *  mini-batches (-B), single precision and the pair cache use the tiled evaluation instead.</pre>
+	 *  
+	 * <pre> -R
+	 *  Stop evaluating the individuals that cannot be parents (error rate only).</pre>
+	 *  
+	 * <pre> -B &lt;mini-batch size&gt;
+	 *  The initial mini-batch size, it grows as the search converges (default: 0, whole train set).</pre>
+	 *  
+	 * <pre> -A &lt;fraction&gt;
+	 *  The initial fraction of the train set that attracts the mini-batch (default: 1.0).
+	 *  Below 1 the mini-batches do not use -Y, -I or the pair cache.</pre>
+	 *  
+	 * <pre> -I &lt;tolerance&gt;
+	 *  Approximate the gravitation with a spatial index within a relative error, for low-dimensional data, not with -Y (default: -1, disabled).</pre>
+	 *  
+	 * <pre> -K &lt;k&gt;
+	 *  Classify with the k nearest instances of each class (default: 0, all the instances).
+	 *  Small k is not an exact speedup, it can change many predictions: compare it with the
+	 *  exact gravitation with getTruncationReport.</pre>
+	 *  
+	 * <pre> -E &lt;temperature&gt;
+	 *  The positive temperature of the class distribution (default: 1.0, normalized gravitation).</pre>
+	 *  
+	 * <pre> -O &lt;metric&gt;
+	 *  The fitness metric: error, auc, macro-auc, gmean, kappa, f1, balanced-accuracy or cost (default: error for standard data, AUC for imbalanced data).</pre>
+	 *  
+	 * <pre> -X &lt;cost matrix&gt;
+	 *  The cost matrix of the cost metric, by rows as in [0 1; 5 0] (default: unit costs).</pre>
+	 *  
+	 * <pre> -L
+	 *  Generate the Gaussian draws of the next generation during the evaluation.</pre>
+	 *  
+	 * <pre> -Z
+	 *  Decompose the covariance matrix in parallel by divide and conquer.</pre>
 	 *  
 	 * <pre> -M &lt;mutation probability&gt;
 	 *  The mutation probability (default: 0.1).</pre>
@@ -189,9 +522,56 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 		if (optionString.length() != 0)
 			seed = (new Integer(optionString)).intValue();
 		
+		optionString = Utils.getOption('T', options);
+		if (optionString.length() != 0)
+			threads = (new Integer(optionString)).intValue();
+		
+		optionString = Utils.getOption('C', options);
+		if (optionString.length() != 0)
+			pairCacheBudget = (new Integer(optionString)).intValue();
+		
+		pairCacheQuantized = Utils.getFlag('Q', options);
+		
+		singlePrecision = Utils.getFlag('F', options);
+		
+		symmetricEvaluation = Utils.getFlag('Y', options);
+		
+		racing = Utils.getFlag('R', options);
+		
+		optionString = Utils.getOption('B', options);
+		if (optionString.length() != 0)
+			miniBatchSize = (new Integer(optionString)).intValue();
+		
+		optionString = Utils.getOption('A', options);
+		if (optionString.length() != 0)
+			miniBatchAttractors = (new Double(optionString)).doubleValue();
+		
+		optionString = Utils.getOption('I', options);
+		if (optionString.length() != 0)
+			spatialIndexTolerance = (new Double(optionString)).doubleValue();
+		
+		optionString = Utils.getOption('K', options);
+		if (optionString.length() != 0)
+			truncation = (new Integer(optionString)).intValue();
+		
+		optionString = Utils.getOption('E', options);
+		if (optionString.length() != 0)
+			setTemperature((new Double(optionString)).doubleValue());
+		
+		fitnessMetric = Utils.getOption('O', options);
+		
+		costMatrix = Utils.getOption('X', options);
+		
+		pipelinedSampling = Utils.getFlag('L', options);
+		
+		parallelEigendecomposition = Utils.getFlag('Z', options);
+		
 		if(Utils.getFlag('S', options))
 			setProblemType(new SelectedTag(STANDARD, dataTags));
 
+		if(symmetricEvaluation && spatialIndexTolerance >= 0)
+			throw new IllegalArgumentException("The symmetric evaluation (-Y) and the spatial index (-I) cannot be used together");
+		
 		Utils.checkForRemainingOptions(options);
 	} 	
 
@@ -202,13 +582,38 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 	 */
 	public String [] getOptions()
 	{
-		String [] options = new String [30];
+		String [] options = new String [33];
 		int current = 0;
 
 		options[current++] = "-P"; options[current++] = "" + populationSize;
 		options[current++] = "-G"; options[current++] = "" + generations;
 		options[current++] = "-D"; options[current++] = "" + seed;
 		options[current++] = "-S"; options[current++] = "" + problemType;
+		options[current++] = "-T"; options[current++] = "" + threads;
+		options[current++] = "-C"; options[current++] = "" + pairCacheBudget;
+		if(pairCacheQuantized)
+			options[current++] = "-Q";
+		if(singlePrecision)
+			options[current++] = "-F";
+		if(symmetricEvaluation)
+			options[current++] = "-Y";
+		if(racing)
+			options[current++] = "-R";
+		options[current++] = "-B"; options[current++] = "" + miniBatchSize;
+		options[current++] = "-A"; options[current++] = "" + miniBatchAttractors;
+		options[current++] = "-I"; options[current++] = "" + spatialIndexTolerance;
+		options[current++] = "-K"; options[current++] = "" + truncation;
+		options[current++] = "-E"; options[current++] = "" + temperature;
+		if(fitnessMetric.length() != 0) {
+			options[current++] = "-O"; options[current++] = fitnessMetric;
+		}
+		if(costMatrix.length() != 0) {
+			options[current++] = "-X"; options[current++] = costMatrix;
+		}
+		if(pipelinedSampling)
+			options[current++] = "-L";
+		if(parallelEigendecomposition)
+			options[current++] = "-Z";
 
 		while (current < options.length) {
 			options[current++] = "";
@@ -244,6 +649,35 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 		// Set maximum of generations
 		algorithm.setMaxOfGenerations(generations);
 		
+		// Set pipelined sampling
+		algorithm.setPipelinedSampling(pipelinedSampling);
+		
+		// Set parallel eigendecomposition
+		algorithm.setParallelEigendecomposition(parallelEigendecomposition);
+		
+		// Set number of evaluation threads
+		algorithm.setParallelism(threads);
+		
+		// Set evaluation precision
+		algorithm.setSinglePrecision(singlePrecision);
+		
+		// Set symmetric pair evaluation
+		algorithm.setSymmetricEvaluation(symmetricEvaluation);
+		
+		// Set racing evaluation
+		algorithm.setRacing(racing);
+		
+		// Set mini-batch evaluation
+		algorithm.setMiniBatchSize(miniBatchSize);
+		algorithm.setMiniBatchAttractors(miniBatchAttractors);
+		
+		// Set top-k inference
+		algorithm.setTruncation(truncation);
+		
+		// Set fitness metric, otherwise given by the data type
+		if(fitnessMetric.length() != 0)
+			algorithm.setFitnessMetric(DGCFitnessMetrics.get(fitnessMetric, costMatrix));
+		
 		algorithm.prepareWeka(seed);
 
 		// Configure Datasets
@@ -343,6 +777,9 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 		
 		algorithm.setSpecies(new DGCSpecies());
 		
+		((DGCSpecies) algorithm.getSpecies()).setPairCache((long) pairCacheBudget << 20, pairCacheQuantized);
+		((DGCSpecies) algorithm.getSpecies()).setSpatialIndex(spatialIndexTolerance);
+		
 		((DGCSpecies) algorithm.getSpecies()).prepare(algorithm.getTrainSet(), algorithm.getTestSet());
 		
 		if(problemType == 1)
@@ -376,6 +813,17 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 		configureMetadata(instances);
 		
 		algorithm.execute();
+		
+		// Exact classifiers are served by a compiled scorer
+		scorer = truncation == 0 && spatialIndexTolerance < 0 ? ((GravitationClassifier) algorithm.getClassifier()).compile() : null;
+	}
+	
+	/**
+	 * @return the compiled scorer of the exact classifier, null if not built
+	 */
+	public DGCScorer getScorer()
+	{
+		return scorer;
 	}
 
 	/**
@@ -399,6 +847,16 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 
 	public double classifyInstance(Instance inst)
 	{
+		if(scorer != null)
+		{
+			double[] values = new double[metadata.numberOfAttributes()];
+			
+			for(int i = 0; i < values.length; i++)
+				values[i] = inst.value(i);
+			
+			return scorer.predict(values);
+		}
+		
 		ClassicInstance instance = new ClassicInstance(metadata.numberOfAttributes());
 		
 		for(int i = 0; i < metadata.numberOfAttributes(); i++)
@@ -410,6 +868,85 @@ public class DGCCPU extends AbstractClassifier implements OptionHandler, Weighte
 
 		return ((GravitationClassifier) algorithm.getClassifier()).classify(instance);
 	}
+	
+	/**
+	 * Computes the class distribution of an instance, the normalized gravitation
+	 * to each class calibrated by the temperature. The gravitation comes from
+	 * the same pass that finds the predicted class.
+	 *
+	 * @param inst the instance
+	 * @return the probability of each class
+	 * @throws Exception if the distribution can't be computed
+	 */
+	public double[] distributionForInstance(Instance inst) throws Exception
+	{
+		if(scorer != null)
+		{
+			double[] values = new double[metadata.numberOfAttributes()];
+			double[] distribution = new double[scorer.getNumberClasses()];
+			
+			for(int i = 0; i < values.length; i++)
+				values[i] = inst.value(i);
+			
+			scorer.predict(values, distribution);
+			
+			DGCScorer.normalize(distribution, temperature);
+			
+			return distribution;
+		}
+		
+		ClassicInstance instance = new ClassicInstance(metadata.numberOfAttributes());
+		
+		for(int i = 0; i < metadata.numberOfAttributes(); i++)
+			instance.setValue(i, inst.value(i));
+		
+		((DGCSpecies) algorithm.getSpecies()).normalizeInstance(instance);
+		
+		return ((GravitationClassifier) algorithm.getClassifier()).distribution(instance, temperature);
+	}
+	
+	/**
+	 * Computes the class distribution of a batch of instances. The batch is
+	 * packed once and scored in parallel blocks by the compiled scorer, the
+	 * distribution being the normalized gravitation to each class.
+	 *
+	 * @param insts the instances
+	 * @return the class distribution of each instance
+	 * @throws Exception if the distributions can't be computed
+	 */
+	public double[][] distributionsForInstances(Instances insts) throws Exception
+	{
+		if(scorer == null)
+		{
+			double[][] distributions = new double[insts.numInstances()][];
+			
+			for(int q = 0; q < insts.numInstances(); q++)
+				distributions[q] = distributionForInstance(insts.instance(q));
+			
+			return distributions;
+		}
+		
+		int numAttributes = scorer.getNumberAttributes();
+		double[] values = new double[insts.numInstances() * numAttributes];
+		
+		for(int q = 0; q < insts.numInstances(); q++)
+		{
+			Instance inst = insts.instance(q);
+			
+			for(int i = 0; i < numAttributes; i++)
+				values[q * numAttributes + i] = inst.value(i);
+		}
+		
+		return scorer.distributions(values, insts.numInstances(), temperature, algorithm.getExecutor());
+	}
+	
+	/**
+	 * @return true, batches are scored in parallel
+	 */
+	public boolean implementsMoreEfficientBatchPrediction()
+	{
+		return true;
+	}
 
 	/**
 	 * Returns an instance of a TechnicalInformation object, containing 
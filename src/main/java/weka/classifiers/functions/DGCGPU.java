@@ -4,11 +4,15 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
 
 import net.sf.jclec.problem.classification.classic.ClassicClassificationMetadata;
 import net.sf.jclec.problem.classification.classic.ClassicInstance;
 import net.sf.jclec.problem.classification.dgc.DGCAlgorithmGPU;
 import net.sf.jclec.problem.classification.dgc.DGCEvaluatorGPU;
+import net.sf.jclec.problem.classification.dgc.DGCFitnessMetrics;
+import net.sf.jclec.problem.classification.dgc.DGCNativeBackend;
+import net.sf.jclec.problem.classification.dgc.DGCScorer;
 import net.sf.jclec.problem.classification.dgc.DGCSpecies;
 import net.sf.jclec.problem.classification.dgc.GravitationClassifier;
 import net.sf.jclec.problem.util.dataset.ArffDataSet;
@@ -40,6 +44,11 @@ import weka.core.WeightedInstancesHandler;
  * A. Cano, A. Zafra, and S. Ventura. Weighted Data Gravitation Classification for Standard and Imbalanced Data.
  * IEEE Transactions on Cybernetics, 43 (6) pages 1672-1687, 2013.
  * 
+ * The GPU memory of a training is kept for the next one, which reuses it if
+ * its train set is not larger, until the virtual machine exits. Set -U, or call
+ * freeDeviceMemory after the last training, to free it in long-lived virtual
+ * machines such as the Weka GUI or the Experimenter.
+ * 
  * @author Alberto Cano 
  */
 
@@ -55,6 +64,20 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 
 	protected int seed = 123456789;
 	
+	protected double temperature = 1.0;
+	
+	protected String fitnessMetric = "";
+	
+	protected String costMatrix = "";
+	
+	protected boolean pipelinedSampling = false;
+	
+	protected boolean parallelEigendecomposition = false;
+	
+	protected boolean releaseDeviceMemory = false;
+	
+	protected transient DGCScorer scorer;
+	
 	protected ArffDataSet dataset;
 
 	protected ClassicClassificationMetadata metadata;
@@ -115,6 +138,103 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 		this.seed = seed;
 	}
 	
+	/**
+	 * @return the temperature of the class distribution
+	 */
+	public double getTemperature() {
+		return temperature;
+	}
+	
+	/**
+	 * @param temperature temperature of the class distribution, below 1 sharpens and above 1 smooths the normalized gravitation
+	 * @throws IllegalArgumentException if the temperature is not positive
+	 */
+	public void setTemperature(double temperature) {
+		if(!(temperature > 0))
+			throw new IllegalArgumentException("The temperature must be positive: " + temperature);
+		
+		this.temperature = temperature;
+	}
+	
+	/**
+	 * @return true if the Gaussian draws of the next generation are generated during the evaluation
+	 */
+	public boolean getPipelinedSampling() {
+		return pipelinedSampling;
+	}
+	
+	/**
+	 * @param pipelinedSampling generate the Gaussian draws of the next generation during the evaluation and sample the population in parallel
+	 */
+	public void setPipelinedSampling(boolean pipelinedSampling) {
+		this.pipelinedSampling = pipelinedSampling;
+	}
+	
+	/**
+	 * @return true if the GPU memory is freed when each training completes
+	 */
+	public boolean getReleaseDeviceMemory() {
+		return releaseDeviceMemory;
+	}
+	
+	/**
+	 * @param releaseDeviceMemory free the GPU memory when each training completes, instead of
+	 * keeping it for the next training until freeDeviceMemory is called or the virtual machine exits
+	 */
+	public void setReleaseDeviceMemory(boolean releaseDeviceMemory) {
+		this.releaseDeviceMemory = releaseDeviceMemory;
+	}
+	
+	/**
+	 * Frees the GPU memory kept for the next training, as after the last fold
+	 * of an experiment in a long-lived virtual machine
+	 */
+	public static void freeDeviceMemory() {
+		DGCNativeBackend.freePool();
+	}
+	
+	/**
+	 * @return true if the covariance matrix is decomposed in parallel by divide and conquer
+	 */
+	public boolean getParallelEigendecomposition() {
+		return parallelEigendecomposition;
+	}
+	
+	/**
+	 * @param parallelEigendecomposition decompose the covariance matrix in parallel by divide and conquer
+	 */
+	public void setParallelEigendecomposition(boolean parallelEigendecomposition) {
+		this.parallelEigendecomposition = parallelEigendecomposition;
+	}
+	
+	/**
+	 * @return the name of the fitness metric, empty for the metric of the data type
+	 */
+	public String getFitnessMetric() {
+		return fitnessMetric;
+	}
+	
+	/**
+	 * @param fitnessMetric name of the fitness metric registered in DGCFitnessMetrics, empty for the metric of the data type
+	 */
+	public void setFitnessMetric(String fitnessMetric) {
+		this.fitnessMetric = fitnessMetric;
+	}
+	
+	/**
+	 * @return the cost matrix of the cost-sensitive metric
+	 */
+	public String getCostMatrix() {
+		return costMatrix;
+	}
+	
+	/**
+	 * @param costMatrix cost matrix of the cost-sensitive metric, by rows as in "[0 1; 5 0]", empty for unit costs
+	 */
+	public void setCostMatrix(String costMatrix) {
+		this.costMatrix = costMatrix;
+	}
+	
 	/**
 	 * @return the problem selector tag
 	 */
@@ -135,6 +255,17 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 	 * 
 	 * @return an enumeration of all the available options
 	 */
+	@Override
+	public Enumeration<Option> listOptions()
+	{
+		return listCommonOptions().elements();
+	}
+	
+	/**
+	 * Returns the options of the classifier
+	 * 
+	 * @return a vector of all the available options
+	 */
 	public Vector<Option> listCommonOptions()
 	{
 		Vector<Option> newVector = new Vector<Option>();
@@ -143,6 +274,12 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 		newVector.addElement(new Option("\tSet the number of generations " +"\n\t(default 500)", "G",1,"-G <number of generations>"));
 		newVector.addElement(new Option("\tSet seed" +"\n\t(default 123456789)", "D",1,"-D <seed>"));
 		newVector.addElement(new Option("\tSet data type" +"\n", "S",1,"-S <data type>"));
+		newVector.addElement(new Option("\tSet the positive temperature of the class distribution" +"\n\t(default 1.0, normalized gravitation)", "E",1,"-E <temperature>"));
+		newVector.addElement(new Option("\tSet the fitness metric: " + DGCFitnessMetrics.names() +"\n\t(default error for standard data, AUC for imbalanced data)", "O",1,"-O <metric>"));
+		newVector.addElement(new Option("\tSet the cost matrix of the cost metric, by rows" +"\n\t(default unit costs)", "X",1,"-X <[0 1; 5 0]>"));
+		newVector.addElement(new Option("\tOverlap the CMA-ES sampling with the evaluation, generating the Gaussian draws" +"\n\tof the next generation while the population is evaluated", "L",0,"-L"));
+		newVector.addElement(new Option("\tDecompose the covariance matrix in parallel by divide and conquer" +"\n", "Z",0,"-Z"));
+		newVector.addElement(new Option("\tFree the GPU memory when the training completes" +"\n\t(default kept for the next training until the virtual machine exits)", "U",0,"-U"));
 
 		return newVector;
 	}
@@ -162,6 +299,24 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 	 * <pre> -S &lt;seed&gt;
 	 *  The seed for random values (default: 111111111).</pre>
 	 *  
+	 * <pre> -E &lt;temperature&gt;
+	 *  The positive temperature of the class distribution (default: 1.0, normalized gravitation).</pre>
+	 *  
+	 * <pre> -O &lt;metric&gt;
+	 *  The fitness metric: error, auc, macro-auc, gmean, kappa, f1, balanced-accuracy or cost (default: error for standard data, AUC for imbalanced data).</pre>
+	 *  
+	 * <pre> -X &lt;cost matrix&gt;
+	 *  The cost matrix of the cost metric, by rows as in [0 1; 5 0] (default: unit costs).</pre>
+	 *  
+	 * <pre> -L
+	 *  Generate the Gaussian draws of the next generation during the evaluation.</pre>
+	 *  
+	 * <pre> -Z
+	 *  Decompose the covariance matrix in parallel by divide and conquer.</pre>
+	 *  
+	 * <pre> -U
+	 *  Free the GPU memory when the training completes (default: kept for the next training until freeDeviceMemory is called or the virtual machine exits).</pre>
+	 *  
 	 * <pre> -C &lt;crossover probability&gt;
 	 *  The crossover probability (default: 0.5).</pre>
 	 *  
@@ -188,6 +343,20 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 		if (optionString.length() != 0)
 			seed = (new Integer(optionString)).intValue();
 		
+		optionString = Utils.getOption('E', options);
+		if (optionString.length() != 0)
+			setTemperature((new Double(optionString)).doubleValue());
+		
+		fitnessMetric = Utils.getOption('O', options);
+		
+		costMatrix = Utils.getOption('X', options);
+		
+		pipelinedSampling = Utils.getFlag('L', options);
+		
+		parallelEigendecomposition = Utils.getFlag('Z', options);
+		
+		releaseDeviceMemory = Utils.getFlag('U', options);
+		
 		if(Utils.getFlag('S', options))
 			setProblemType(new SelectedTag(STANDARD, dataTags));
 
@@ -208,6 +377,19 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 		options[current++] = "-G"; options[current++] = "" + generations;
 		options[current++] = "-D"; options[current++] = "" + seed;
 		options[current++] = "-S"; options[current++] = "" + problemType;
+		options[current++] = "-E"; options[current++] = "" + temperature;
+		if(fitnessMetric.length() != 0) {
+			options[current++] = "-O"; options[current++] = fitnessMetric;
+		}
+		if(costMatrix.length() != 0) {
+			options[current++] = "-X"; options[current++] = costMatrix;
+		}
+		if(pipelinedSampling)
+			options[current++] = "-L";
+		if(parallelEigendecomposition)
+			options[current++] = "-Z";
+		if(releaseDeviceMemory)
+			options[current++] = "-U";
 
 		while (current < options.length) {
 			options[current++] = "";
@@ -243,6 +425,12 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 		// Set maximum of generations
 		algorithm.setMaxOfGenerations(generations);
 		
+		// Set pipelined sampling
+		algorithm.setPipelinedSampling(pipelinedSampling);
+		
+		// Set parallel eigendecomposition
+		algorithm.setParallelEigendecomposition(parallelEigendecomposition);
+		
 		algorithm.prepareWeka(seed);
 
 		// Configure Datasets
@@ -344,16 +532,18 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 		
 		((DGCSpecies) algorithm.getSpecies()).prepare(algorithm.getTrainSet(), algorithm.getTestSet());
 		
-		//TODO
-//		if(problemType == 1)
-//			algorithm.setEvaluator(new DGCEvaluator());
-//		else
-//			algorithm.setEvaluator(new DGCEvaluatorAUC());
-		
 		algorithm.setEvaluator(new DGCEvaluatorGPU());
 		
 		((DGCEvaluatorGPU) algorithm.getEvaluator()).setSpecies((DGCSpecies) algorithm.getSpecies());
 		
+		// The device reduces the confusion matrices, the fitness metric is computed from them
+		if(fitnessMetric.length() != 0)
+			((DGCEvaluatorGPU) algorithm.getEvaluator()).setFitnessAccumulator(DGCFitnessMetrics.get(fitnessMetric, costMatrix));
+		else if(problemType == STANDARD)
+			((DGCEvaluatorGPU) algorithm.getEvaluator()).setFitnessAccumulator(DGCFitnessMetrics.get("error"));
+		else
+			((DGCEvaluatorGPU) algorithm.getEvaluator()).setFitnessAccumulator(DGCFitnessMetrics.auc(classNames.size()));
+		
 		((DGCEvaluatorGPU) algorithm.getEvaluator()).prepare(algorithm);
 	}
 	
@@ -377,9 +567,21 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 	{
 		algorithm = new DGCAlgorithmGPU();
 		
-		configureMetadata(instances);
+		// The GPU memory is returned after each training, the next fold reuses it unless it is freed
+		try {
+			configureMetadata(instances);
+			
+			algorithm.execute();
+		} finally {
+			if(algorithm.getEvaluator() instanceof DGCEvaluatorGPU)
+				((DGCEvaluatorGPU) algorithm.getEvaluator()).close();
+			
+			if(releaseDeviceMemory)
+				freeDeviceMemory();
+		}
 		
-		algorithm.execute();
+		// Batches are served by a compiled scorer on the CPU
+		scorer = ((GravitationClassifier) algorithm.getClassifier()).compile();
 	}
 
 	/**
@@ -414,6 +616,85 @@ public class DGCGPU extends AbstractClassifier implements OptionHandler, Weighte
 
 		return ((GravitationClassifier) algorithm.getClassifier()).classify(instance);
 	}
+	
+	/**
+	 * Computes the class distribution of an instance, the normalized gravitation
+	 * to each class calibrated by the temperature. The gravitation comes from
+	 * the same pass that finds the predicted class.
+	 *
+	 * @param inst the instance
+	 * @return the probability of each class
+	 * @throws Exception if the distribution can't be computed
+	 */
+	public double[] distributionForInstance(Instance inst) throws Exception
+	{
+		if(scorer != null)
+		{
+			double[] values = new double[metadata.numberOfAttributes()];
+			double[] distribution = new double[scorer.getNumberClasses()];
+			
+			for(int i = 0; i < values.length; i++)
+				values[i] = inst.value(i);
+			
+			scorer.predict(values, distribution);
+			
+			DGCScorer.normalize(distribution, temperature);
+			
+			return distribution;
+		}
+		
+		ClassicInstance instance = new ClassicInstance(metadata.numberOfAttributes());
+		
+		for(int i = 0; i < metadata.numberOfAttributes(); i++)
+			instance.setValue(i, inst.value(i));
+		
+		((DGCSpecies) algorithm.getSpecies()).normalizeInstance(instance);
+		
+		return ((GravitationClassifier) algorithm.getClassifier()).distribution(instance, temperature);
+	}
+	
+	/**
+	 * Computes the class distribution of a batch of instances. The batch is
+	 * packed once and scored in parallel blocks on the CPU by the compiled scorer, the
+	 * distribution being the normalized gravitation to each class.
+	 *
+	 * @param insts the instances
+	 * @return the class distribution of each instance
+	 * @throws Exception if the distributions can't be computed
+	 */
+	public double[][] distributionsForInstances(Instances insts) throws Exception
+	{
+		if(scorer == null)
+		{
+			double[][] distributions = new double[insts.numInstances()][];
+			
+			for(int q = 0; q < insts.numInstances(); q++)
+				distributions[q] = distributionForInstance(insts.instance(q));
+			
+			return distributions;
+		}
+		
+		int numAttributes = scorer.getNumberAttributes();
+		double[] values = new double[insts.numInstances() * numAttributes];
+		
+		for(int q = 0; q < insts.numInstances(); q++)
+		{
+			Instance inst = insts.instance(q);
+			
+			for(int i = 0; i < numAttributes; i++)
+				values[q * numAttributes + i] = inst.value(i);
+		}
+		
+		return scorer.distributions(values, insts.numInstances(), temperature, ForkJoinPool.commonPool());
+	}
+	
+	/**
+	 * @return true, batches are scored in parallel
+	 */
+	public boolean implementsMoreEfficientBatchPrediction()
+	{
+		return true;
+	}
 
 	/**
 	 * Returns an instance of a TechnicalInformation object, containing 
@@ -1,18 +1,37 @@
 int* h_numberInstancesClass;
-__constant__ char ISNUMERICAL[256];
+int* h_numerical;
 
-__device__ float distance(int instanciaA, int instanciaB, float* d_weights, int numAttributes, float* instancesData, int numberInstances_A, int base)
+// Weights of the population and its confusion matrices, direct buffers owned by Java
+float* h_population;
+int* h_confusionMatrices;
+
+// Dimensions of the device memory, kept while it is allocated so that smaller train sets reuse it
+bool allocated = false;
+bool reload = false;
+int allocatedThreads, allocatedAttributes, allocatedInstances_A, allocatedClasses;
+
+// Indices of the numerical and categorical attributes
+__constant__ int NUMERICAL[MAX_ATTRIBUTES];
+__constant__ int CATEGORICAL[MAX_ATTRIBUTES];
+__constant__ int NUMBER_NUMERICAL;
+__constant__ int NUMBER_CATEGORICAL;
+
+__device__ float distance(int instanciaA, int instanciaB, float* d_weights, float* instancesData, int numberInstances_A, int base)
 {
 	float distance = 0.0f;
 
-	for(int i = 0; i < numAttributes; i++)
-		if(ISNUMERICAL[i])
-		{
-			float diff = instancesData[instanciaB + i*numberInstances_A] - instancesData[instanciaA + i*numberInstances_A];
-			distance += d_weights[base + i] * diff * diff;
-		}
-		else
-			distance += d_weights[base + i] * (instancesData[instanciaB + i*numberInstances_A] == instancesData[instanciaA + i*numberInstances_A] ? 0 : 1);
+	for(int j = 0; j < NUMBER_NUMERICAL; j++)
+	{
+		int i = NUMERICAL[j];
+		float diff = instancesData[instanciaB + i*numberInstances_A] - instancesData[instanciaA + i*numberInstances_A];
+		distance += d_weights[base + i] * diff * diff;
+	}
+
+	for(int j = 0; j < NUMBER_CATEGORICAL; j++)
+	{
+		int i = CATEGORICAL[j];
+		distance += d_weights[base + i] * (instancesData[instanciaB + i*numberInstances_A] != instancesData[instanciaA + i*numberInstances_A]);
+	}
 
 	return distance;
 }
@@ -27,56 +46,49 @@ __global__ void kernelCalculateGravity(unsigned char* result, int Class, float*
 
 		for(int i = 0; i < numberInstances; i++)
 			if(instancesClass[i] == Class && i != instance)
-				gravityValue += 1.0f / distance(instance, i, d_weights, numberAttributes, instancesData, numberInstances_A, blockIdx.x*numberAttributes*numberClasses + instancesClass[i]*numberAttributes);
+				gravityValue += 1.0f / distance(instance, i, d_weights, instancesData, numberInstances_A, blockIdx.x*numberAttributes*numberClasses + instancesClass[i]*numberAttributes);
 
 		gravityValue *= 1.0f - ((numberInstancesClass[Class] - 1) / (float) numberInstances);
 
 		int memPosition = blockIdx.x*numberInstances_A + instance;
 
+		// Keeps the predicted class
 		if(gravityValue > gravityValues[memPosition])
 		{
 			gravityValues[memPosition] = gravityValue;
-
-			if(instancesClass[instance] == Class)
-				result[memPosition] = 0; // HIT
-			else
-				result[memPosition] = 1; // FAIL
+			result[memPosition] = Class;
 		}
 	}
 }
 
 /**
  * Reduction GPU Confusion Matrix kernel
+ *
+ * Each block reduces the predicted classes of an individual into its confusion
+ * matrix (actual class by rows), kept in numberClasses*numberClasses ints of
+ * dynamic shared memory. The fitness metric is computed from it on the host.
  */
 
-__global__ void MC_kernelGravity(unsigned char* result, jfloat* fitness, int numberInstances, int numberInstances_A) 
+__global__ void MC_kernelGravity(unsigned char* result, int* instancesClass, int* confusion, int numberInstances, int numberInstances_A, int numberClasses) 
 {
-	__shared__ int MC[THREADS_EVAL_BLOCK];
+	extern __shared__ int MC[];
+
+	for(int i = threadIdx.y; i < numberClasses*numberClasses; i += THREADS_EVAL_BLOCK)
+		MC[i] = 0;
 
-	MC[threadIdx.y] = 0;
+	__syncthreads();
 
-	int base = blockIdx.x*numberInstances_A + threadIdx.y;
-	int top =  numberInstances - threadIdx.y;
+	int base = blockIdx.x*numberInstances_A;
 
 	// Performs the reduction of the thread corresponding values
-	for(int i = 0; i < top; i+=THREADS_EVAL_BLOCK)
-	{
-		MC[threadIdx.y] += result[base + i];
-	}
+	for(int i = threadIdx.y; i < numberInstances; i += THREADS_EVAL_BLOCK)
+		atomicAdd(&MC[instancesClass[i]*numberClasses + result[base + i]], 1);
 
 	__syncthreads();
 
-	// Calculates the final amount
-	if(threadIdx.y == 0)
-	{
-		int fails = 0;
-		
-		for(int i = 0; i < THREADS_EVAL_BLOCK; i++)
-			fails += MC[i];
-		
-		// Set the fitness to the individual
-		fitness[blockIdx.x] = fails / (float) numberInstances;
-	}
+	// Copy the confusion matrix of the individual
+	for(int i = threadIdx.y; i < numberClasses*numberClasses; i += THREADS_EVAL_BLOCK)
+		confusion[blockIdx.x*numberClasses*numberClasses + i] = MC[i];
 }
 
 /**
@@ -94,30 +106,23 @@ CUT_THREADPROC gpuThreadGravity(Plan *plan)
 	if(deviceCount == 3 && device == 1) device = 2;
 	cudaSetDevice(device);
 
-    float* h_fitness;
 	float* d_gravity;
 	float* d_weights;
 	float* d_instancesData;
-	float* h_weights;
 	int *d_instancesClass;
 	int* d_numberInstancesClass;
 	int threadPopulationSize;
 	unsigned char* d_result;
-	jfloat* d_fitness;
-	JNIEnv* env;
-	JavaVM* jvm;
-
-	cudaMallocHost((void**)&h_fitness, BLOCK_SIZE_GRAVITY*sizeof(float));
-	cudaMallocHost((void**)&h_weights, numberAttributes*numClasses*BLOCK_SIZE_GRAVITY*sizeof(float));
-	
-	// GPU dynamic memory allocation
-	cudaMalloc((void**) &d_numberInstancesClass, numClasses*sizeof(int));	
-	cudaMalloc((void**) &d_weights, numberAttributes*numClasses*BLOCK_SIZE_GRAVITY*sizeof(jfloat));	
-	cudaMalloc((void**) &d_fitness, BLOCK_SIZE_GRAVITY*sizeof(jfloat));	
-	cudaMalloc((void**) &d_instancesData, numberAttributes*numberInstances_A*sizeof(float));
-	cudaMalloc((void**) &d_instancesClass, numberInstances*sizeof(int));
-	cudaMalloc((void**) &d_result, BLOCK_SIZE_GRAVITY * numberInstances_A * sizeof(unsigned char));
-	cudaMalloc((void**) &d_gravity, BLOCK_SIZE_GRAVITY * numberInstances_A * sizeof(float));
+	int* d_confusion;
+		
+	// GPU dynamic memory allocation, sized by the allocated dimensions
+	cudaMalloc((void**) &d_numberInstancesClass, allocatedClasses*sizeof(int));	
+	cudaMalloc((void**) &d_weights, allocatedAttributes*allocatedClasses*BLOCK_SIZE_GRAVITY*sizeof(jfloat));	
+	cudaMalloc((void**) &d_confusion, allocatedClasses*allocatedClasses*BLOCK_SIZE_GRAVITY*sizeof(int));	
+	cudaMalloc((void**) &d_instancesData, allocatedAttributes*allocatedInstances_A*sizeof(float));
+	cudaMalloc((void**) &d_instancesClass, allocatedInstances_A*sizeof(int));
+	cudaMalloc((void**) &d_result, BLOCK_SIZE_GRAVITY * allocatedInstances_A * sizeof(unsigned char));
+	cudaMalloc((void**) &d_gravity, BLOCK_SIZE_GRAVITY * allocatedInstances_A * sizeof(float));
 
 	// Copy instances data and classes to the GPU
 	cudaMemcpy(d_instancesData, h_instancesData, numberAttributes*numberInstances_A*sizeof(float), cudaMemcpyHostToDevice );
@@ -127,8 +132,6 @@ CUT_THREADPROC gpuThreadGravity(Plan *plan)
 	// Signal: thread is ready to evaluate
 	SEM_POST(&post_sem[plan->thread]);
 
-	Get_VM(&jvm, &env);
-
 	dim3 threads_evaluate(1, THREADS_EVAL_BLOCK);
 	dim3 threads_mc(1,THREADS_EVAL_BLOCK);
 	
@@ -139,24 +142,37 @@ CUT_THREADPROC gpuThreadGravity(Plan *plan)
 		// Wait until evaluation is required
 		SEM_WAIT (&wait_sem[plan->thread]);
 
-		if(evaluate)
+		if(reload)
 		{
-			// Get the methods from Java
-			jclass cls = env->GetObjectClass(algorithm);
-		
-			jmethodID midR = env->GetMethodID(cls, "getWeight", "(III)F");	
-			jmethodID midW = env->GetMethodID(cls, "setFitness", "(IF)V");
+			// New train set that fits in the allocated memory
+			cudaMemcpy(d_instancesData, h_instancesData, numberAttributes*numberInstances_A*sizeof(float), cudaMemcpyHostToDevice );
+			cudaMemcpy(d_instancesClass, h_instancesClass, numberInstances*sizeof(int), cudaMemcpyHostToDevice );
+			cudaMemcpy(d_numberInstancesClass, h_numberInstancesClass, numClasses*sizeof(int), cudaMemcpyHostToDevice );
 			
+			firstTime = true;
+		}
+		else if(evaluate)
+		{
 			if(firstTime)
 			{
-				jmethodID midN = env->GetMethodID(cls, "isNumerical", "(I)Z");	
+				int numerical[MAX_ATTRIBUTES], categorical[MAX_ATTRIBUTES], numberNumerical = 0, numberCategorical = 0;
 				
-				for(int i = 0; i < numberAttributes; i++)
+				// nativeMalloc rejects larger train sets, the bound keeps the stack safe anyway
+				for(int i = 0; i < numberAttributes && i < MAX_ATTRIBUTES; i++)
 				{
-					jboolean isNumericalValue = env->CallCharMethod(algorithm, midN, i);
-					cudaMemcpyToSymbol("ISNUMERICAL", &isNumericalValue, sizeof(jboolean), i*sizeof(jboolean), cudaMemcpyHostToDevice);
+					if(h_numerical[i])
+						numerical[numberNumerical++] = i;
+					else
+						categorical[numberCategorical++] = i;
 				}
 				
+				if(numberNumerical > 0)
+					cudaMemcpyToSymbol("NUMERICAL", numerical, numberNumerical*sizeof(int), 0, cudaMemcpyHostToDevice);
+				if(numberCategorical > 0)
+					cudaMemcpyToSymbol("CATEGORICAL", categorical, numberCategorical*sizeof(int), 0, cudaMemcpyHostToDevice);
+				cudaMemcpyToSymbol("NUMBER_NUMERICAL", &numberNumerical, sizeof(int), 0, cudaMemcpyHostToDevice);
+				cudaMemcpyToSymbol("NUMBER_CATEGORICAL", &numberCategorical, sizeof(int), 0, cudaMemcpyHostToDevice);
+				
 				firstTime = false;
 			}
 	
@@ -183,18 +199,14 @@ CUT_THREADPROC gpuThreadGravity(Plan *plan)
 					if(j+BLOCK_SIZE_GRAVITY > threadPopulationSize)
 						blockIdxSize = threadPopulationSize - j;
 									
-					// Copy each individual in the block from the thread population to the GPU
-					for(int i = 0; i < blockIdxSize; i++)
-						for(int k = 0; k < numClasses; k++)
-							for(int l = 0; l < numberAttributes; l++)
-								h_weights[i*numberAttributes*numClasses + k*numberAttributes + l] = env->CallFloatMethod(algorithm,midR,base+j+i,l,k);
-
-								cudaMemcpy(d_weights, h_weights, numberAttributes*numClasses*blockIdxSize*sizeof(float), cudaMemcpyHostToDevice );
+					// Copy the individuals of the block to the GPU, packed by Java in the weights buffer
+					cudaMemcpy(d_weights, &h_population[(base+j)*numberAttributes*numClasses], numberAttributes*numClasses*blockIdxSize*sizeof(float), cudaMemcpyHostToDevice );
 
 								// Setup evaluation grid size	
 								dim3 grid_evaluate(blockIdxSize, (int)ceil(numberInstances/(float)THREADS_EVAL_BLOCK));
 
 								cudaMemset(d_gravity, 0, BLOCK_SIZE_GRAVITY * numberInstances_A * sizeof(float));
+								cudaMemset(d_result, 0, BLOCK_SIZE_GRAVITY * numberInstances_A * sizeof(unsigned char));
 
 								// Evaluation kernel call					
 								for(int i = 0; i < numClasses; i++)
@@ -204,15 +216,10 @@ CUT_THREADPROC gpuThreadGravity(Plan *plan)
 								dim3 grid_mc(blockIdxSize, 1);
 
 								// Reduction kernel call
-								MC_kernelGravity <<< grid_mc, threads_mc >>> (d_result, d_fitness, numberInstances, numberInstances_A);
+								MC_kernelGravity <<< grid_mc, threads_mc, numClasses*numClasses*sizeof(int) >>> (d_result, d_instancesClass, d_confusion, numberInstances, numberInstances_A, numClasses);
 
-								// Copy the fitness values from the GPU to Host memory and set them to the individuals
-								cudaMemcpy(h_fitness, d_fitness, blockIdxSize*sizeof(jfloat), cudaMemcpyDeviceToHost );	
-
-								for(int i = 0; i < blockIdxSize; i++)
-								{
-									env->CallVoidMethod(algorithm, midW, base + j + i, h_fitness[i]);
-								}							
+								// Copy the confusion matrices from the GPU to the confusion buffer read by Java
+								cudaMemcpy(&h_confusionMatrices[(base+j)*numClasses*numClasses], d_confusion, numClasses*numClasses*blockIdxSize*sizeof(int), cudaMemcpyDeviceToHost );
 				}
 			}
 		}
@@ -222,12 +229,10 @@ CUT_THREADPROC gpuThreadGravity(Plan *plan)
 			cudaFree(d_instancesData);    
 			cudaFree(d_instancesClass);
 			cudaFree(d_result);
-			cudaFree(d_fitness);
+			cudaFree(d_confusion);
 			cudaFree(d_weights);
 			cudaFree(d_numberInstancesClass);
-
-			cudaFreeHost(h_fitness);
-			cudaFreeHost(h_weights);
+			cudaFree(d_gravity);
 		}
 
 		// Evaluation finished
@@ -235,7 +240,6 @@ CUT_THREADPROC gpuThreadGravity(Plan *plan)
 
 	}while(evaluate);
 
-	jvm->DetachCurrentThread();
 	CUT_THREADEND;
 }
 
@@ -243,52 +247,97 @@ CUT_THREADPROC gpuThreadGravity(Plan *plan)
  * Function executed when nativeFree() call from Java
  */
 JNIEXPORT void JNICALL
-Java_net_sf_jclec_problem_classification_dgc_DGCEvaluatorGPU_nativeFree(JNIEnv *env, jobject obj)
+Java_net_sf_jclec_problem_classification_dgc_DGCNativeBackend_nativeFree(JNIEnv *env, jclass cls)
 {
-	nativeFree(env,obj);
+	if(!allocated)
+		return;
+
+	nativeFree(env,cls);
+
+	free(h_numberInstancesClass);
+	free(h_numerical);
+
+	allocated = false;
 }
 
 /**
  * Function executed when nativeMalloc() call from Java
  */
 JNIEXPORT void JNICALL
-Java_net_sf_jclec_problem_classification_dgc_DGCEvaluatorGPU_nativeMalloc(JNIEnv *env, jobject obj, jint popSize, jint jnumThreads, jint jnumberAttributes, jint jnumberInstances, jint jnumClasses, jobject jalgorithm)
+Java_net_sf_jclec_problem_classification_dgc_DGCNativeBackend_nativeMalloc(JNIEnv *env, jclass cls, jint popSize, jint jnumThreads, jint jnumberAttributes, jint jnumberInstances, jint jnumClasses, jobject jinstances, jobject jclasses, jobject jnumberInstancesClass, jobject jnumerical)
 {
-	algorithm = jalgorithm;
+	// The attribute indices are kept in constant arrays of MAX_ATTRIBUTES entries
+	if(jnumberAttributes > MAX_ATTRIBUTES)
+	{
+		env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"), "The GPU kernels support at most 256 attributes");
+		return;
+	}
+
+	int jnumberInstances_A = ceil(jnumberInstances/(float)ALIGNMENT)*ALIGNMENT;
+
+	// Reuse the device memory if the new train set fits in it, otherwise free it
+	bool reuse = allocated && jnumThreads == allocatedThreads && jnumberAttributes <= allocatedAttributes && jnumberInstances_A <= allocatedInstances_A && jnumClasses <= allocatedClasses;
+
+	if(allocated && !reuse)
+		Java_net_sf_jclec_problem_classification_dgc_DGCNativeBackend_nativeFree(env, cls);
+
+	if(reuse)
+	{
+		free(h_instancesData);
+		free(h_instancesClass);
+		free(h_numberInstancesClass);
+		free(h_numerical);
+	}
+
 	numThreads = jnumThreads;
 	numberAttributes = jnumberAttributes;
 	numClasses = jnumClasses;
 	numberInstances = jnumberInstances;
-	numberInstances_A = ceil(numberInstances/(float)ALIGNMENT)*ALIGNMENT;
-
-	// Set up semaphores
-	for(int i = 0; i < numThreads; i++)
-	{
-		SEM_INIT (&wait_sem[i], 0);
-		SEM_INIT (&post_sem[i], 0);
-	}
+	numberInstances_A = jnumberInstances_A;
+	evaluate = true;
 
-	jclass cls = env->GetObjectClass(algorithm);
-	jmethodID midR = env->GetMethodID(cls, "getValue", "(II)F");
-	jmethodID midRR = env->GetMethodID(cls, "getNumberInstances", "(I)I");
-	jmethodID midRRR = env->GetMethodID(cls, "getClassValue", "(I)F");
+	// Direct buffers packed by Java, the instances by columns
+	float* instances = (float*) env->GetDirectBufferAddress(jinstances);
 
-	h_instancesData = (float*)malloc(numberAttributes*numberInstances_A*sizeof(float));
+	h_instancesData = (float*)calloc(numberAttributes*numberInstances_A, sizeof(float));
 	h_instancesClass = (int*)malloc(numberInstances*sizeof(int));	
 	h_numberInstancesClass = (int*)malloc(numClasses*sizeof(int));
+	h_numerical = (int*)malloc(numberAttributes*sizeof(int));
 
-	for(int i = 0; i < numClasses; i++)
+	// Copy dataset data from Java, one aligned column per attribute
+	for(int j = 0; j < numberAttributes; j++)
+		memcpy(&h_instancesData[j*numberInstances_A], &instances[j*numberInstances], numberInstances*sizeof(float));
+
+	memcpy(h_instancesClass, env->GetDirectBufferAddress(jclasses), numberInstances*sizeof(int));
+	memcpy(h_numberInstancesClass, env->GetDirectBufferAddress(jnumberInstancesClass), numClasses*sizeof(int));
+	memcpy(h_numerical, env->GetDirectBufferAddress(jnumerical), numberAttributes*sizeof(int));
+
+	if(reuse)
 	{
-		h_numberInstancesClass[i] = env->CallIntMethod(algorithm,midRR,i);
+		reload = true;
+
+		// SIGNAL: wake up threads to copy the new train set
+		for(int i = 0; i < numThreads; i++)
+			SEM_POST (&wait_sem[i]);
+
+		for(int i = 0; i < numThreads; i++)
+			SEM_WAIT (&post_sem[i]);
+
+		reload = false;
+		return;
 	}
 
-	// Copy dataset data from Java
-	for(int i = 0; i < numberInstances; i++)
-	{
-		for(int j = 0; j < numberAttributes; j++)
-			h_instancesData[j*numberInstances_A+i] = env->CallFloatMethod(algorithm,midR,i,j);
+	allocated = true;
+	allocatedThreads = numThreads;
+	allocatedAttributes = numberAttributes;
+	allocatedInstances_A = numberInstances_A;
+	allocatedClasses = numClasses;
 
-			h_instancesClass[i] = (int) env->CallFloatMethod(algorithm,midRRR,i);
+	// Set up semaphores
+	for(int i = 0; i < numThreads; i++)
+	{
+		SEM_INIT (&wait_sem[i], 0);
+		SEM_INIT (&post_sem[i], 0);
 	}
 
 	// Set up threads plans
@@ -318,14 +367,15 @@ Java_net_sf_jclec_problem_classification_dgc_DGCEvaluatorGPU_nativeMalloc(JNIEnv
 /**
  * Function executed when nativeEvaluate() call from Java
  * 
- * @param The number of individuals, the actual class to classify and the algorithm
+ * @param The number of individuals and the direct buffers of their weights and confusion matrices
  */
 JNIEXPORT void JNICALL
-Java_net_sf_jclec_problem_classification_dgc_DGCEvaluatorGPU_nativeEvaluate(JNIEnv *env, jobject obj, jint size, jobject jalgorithm)
+Java_net_sf_jclec_problem_classification_dgc_DGCNativeBackend_nativeEvaluate(JNIEnv *env, jclass cls, jint size, jobject jweights, jobject jconfusion)
 {
 	evaluate = true;
 
-	algorithm = jalgorithm;
+	h_population = (float*) env->GetDirectBufferAddress(jweights);
+	h_confusionMatrices = (int*) env->GetDirectBufferAddress(jconfusion);
 	populationSize = size;
 
 	// SIGNAL: wake up threads to evaluate
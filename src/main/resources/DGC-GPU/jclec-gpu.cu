@@ -12,12 +12,11 @@ int numClasses, numberAttributes, numberInstances, numberInstances_A, numThreads
 bool evaluate = true;
 float *h_instancesData;
 int *h_instancesClass;
-jobject algorithm;
 
 /**
  * Free the dynamic memory space
  */
-void nativeFree(JNIEnv *env, jobject obj)
+void nativeFree(JNIEnv *env, jclass cls)
 {
 	evaluate = false;
 
@@ -39,24 +38,4 @@ void nativeFree(JNIEnv *env, jobject obj)
 	#endif
 }
 
-/**
- * Gets the VM running at the host
- */
-static void Get_VM(JavaVM** jvm_p, JNIEnv** env_p) {
-
-	JavaVM jvmBuffer;
-	JavaVM* vmBuf = &jvmBuffer;
-	jsize jvmTotalNumberFound = 0;  
-	jint resCheckVM = JNI_GetCreatedJavaVMs(&vmBuf, 1, &jvmTotalNumberFound);
-	
-	if (jvmTotalNumberFound < 1)
-	{
-		fprintf(stderr, "No JVM found\n");
-		exit(0);
-	}
-	*jvm_p = vmBuf;
-
-	(*jvm_p)->AttachCurrentThread((void**)env_p, NULL);
-}
-
 #include "gravity.cu"
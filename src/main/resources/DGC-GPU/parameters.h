@@ -25,7 +25,7 @@
 
 // Include JNI interfaces
 
-#include "jni/net_sf_jclec_problem_classification_dgc_DGCEvaluatorGPU.h"
+#include "jni/net_sf_jclec_problem_classification_dgc_DGCNativeBackend.h"
 
 using namespace std;
 
@@ -39,6 +39,9 @@ using namespace std;
 // Maximum number of individuals evaluated concurrently [0-256] Recommended values 32*i
 #define BLOCK_SIZE_GRAVITY 128
 
+// Maximum number of attributes of the train set, size of the attribute index constants
+#define MAX_ATTRIBUTES 256
+
 // Plan structure to let tasks know its thread number and population size
 typedef struct {
     int thread;